@@ -39,3 +39,22 @@ LOCAL_MODULE    := touchpad_relative
 LOCAL_SRC_FILES := $(JNI_SRC_PATH)/touchpad_relative.cpp
 LOCAL_SHARED_LIBRARIES := evdev_common
 include $(BUILD_SHARED_LIBRARY)
+
+include $(CLEAR_VARS)
+
+LOCAL_MODULE    := keyboard_read
+LOCAL_SRC_FILES := $(JNI_SRC_PATH)/keyboard_read.cpp
+LOCAL_SHARED_LIBRARIES := evdev_common
+include $(BUILD_SHARED_LIBRARY)
+
+include $(CLEAR_VARS)
+
+LOCAL_MODULE    := touch_uinput
+LOCAL_SRC_FILES := $(JNI_SRC_PATH)/touch_uinput.cpp
+include $(BUILD_SHARED_LIBRARY)
+
+include $(CLEAR_VARS)
+
+LOCAL_MODULE    := thread_policy
+LOCAL_SRC_FILES := $(JNI_SRC_PATH)/thread_policy.cpp
+include $(BUILD_SHARED_LIBRARY)
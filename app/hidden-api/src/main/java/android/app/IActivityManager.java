@@ -14,6 +14,9 @@ public interface IActivityManager extends IInterface {
     void registerProcessObserver(IProcessObserver observer)
             throws RemoteException;
 
+    void unregisterProcessObserver(IProcessObserver observer)
+            throws RemoteException;
+
     abstract class Stub extends Binder implements IActivityManager {
 
         public static IActivityManager asInterface(IBinder obj) {
@@ -6,6 +6,8 @@ public interface IProcessObserver {
     void onForegroundActivitiesChanged(int pid, int uid, boolean foregroundActivities) throws android.os.RemoteException;
     void onForegroundServicesChanged(int pid, int uid, int serviceTypes) throws android.os.RemoteException;
     void onProcessDied(int pid, int uid) throws android.os.RemoteException;
+    // Since Android 14
+    void onProcessStarted(int pid, int processUid, int packageUid, String packageName, String processName) throws android.os.RemoteException;
 
     abstract class Stub extends Binder implements IProcessObserver {
     }
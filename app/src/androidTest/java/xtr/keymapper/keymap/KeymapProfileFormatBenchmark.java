@@ -0,0 +1,129 @@
+package xtr.keymapper.keymap;
+
+import static android.content.Context.MODE_PRIVATE;
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Load and save times of many profiles as string sets in shared preferences, the format before
+ * KeymapProfileFile, and as profile files. Loading includes parsing the profiles.
+ * The median of the runs is logged with the tag of this class.
+ */
+@RunWith(AndroidJUnit4.class)
+public class KeymapProfileFormatBenchmark {
+    private static final String TAG = "KeymapProfileFormatBenchmark";
+    private static final String PREFS = "benchmark_profiles";
+    private static final int PROFILES = 150;
+    private static final int KEYS = 40;
+    private static final int RUNS = 5;
+
+    private Context context;
+    private File profilesDir;
+    private final Map<String, Set<String>> profiles = new LinkedHashMap<>();
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        profilesDir = new File(context.getCacheDir(), PREFS);
+        profilesDir.mkdirs();
+        for (int i = 0; i < PROFILES; i++) {
+            Set<String> lines = new HashSet<>();
+            for (int k = 0; k < KEYS; k++)
+                lines.add("KEY_" + k + " " + (100 + i + k * 20.5f) + " " + (300 + k * 7.25f) + " 0.0");
+            lines.add(KeymapProfiles.MOUSE_RIGHT + " 1200.0 650.0");
+            lines.add("APPLICATION com.example.game" + i);
+            lines.add("ENABLED");
+            profiles.put("profile " + i, lines);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (int run = 0; run < RUNS; run++) {
+            context.deleteSharedPreferences(PREFS + run);
+            context.deleteSharedPreferences(PREFS + run + "_copy");
+        }
+        File[] files = profilesDir.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        profilesDir.delete();
+    }
+
+    private File getFile(int run, String profileName) {
+        return new File(profilesDir, run + "_" + profileName.replace(' ', '_') + ".profile");
+    }
+
+    private static KeymapProfile parse(Set<String> lines) {
+        KeymapProfile profile = new KeymapProfile();
+        profile.disabled = true;
+        for (String line : lines) KeymapProfiles.parseLine(profile, line.split("\\s+"));
+        return profile;
+    }
+
+    private static long median(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void compareFormats() throws IOException {
+        long[] setSave = new long[RUNS], setLoad = new long[RUNS], fileSave = new long[RUNS], fileLoad = new long[RUNS];
+        File sharedPrefsDir = new File(context.getDataDir(), "shared_prefs");
+
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            SharedPreferences.Editor editor = context.getSharedPreferences(PREFS + run, MODE_PRIVATE).edit();
+            for (Map.Entry<String, Set<String>> entry : profiles.entrySet())
+                editor.putStringSet(entry.getKey(), entry.getValue());
+            editor.commit();
+            setSave[run] = System.nanoTime() - start;
+
+            // Preferences stay in memory once loaded, a copy of the file is loaded from storage like at app start
+            Files.copy(new File(sharedPrefsDir, PREFS + run + ".xml").toPath(),
+                    new File(sharedPrefsDir, PREFS + run + "_copy.xml").toPath());
+            start = System.nanoTime();
+            Map<String, ?> loaded = context.getSharedPreferences(PREFS + run + "_copy", MODE_PRIVATE).getAll();
+            int keys = 0;
+            for (Object value : loaded.values()) keys += parse((Set<String>) value).keys.size();
+            setLoad[run] = System.nanoTime() - start;
+            assertEquals(PROFILES * KEYS, keys);
+
+            start = System.nanoTime();
+            for (Map.Entry<String, Set<String>> entry : profiles.entrySet())
+                KeymapProfileFile.write(getFile(run, entry.getKey()), entry.getValue());
+            fileSave[run] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            keys = 0;
+            for (String profileName : profiles.keySet())
+                keys += KeymapProfileFile.read(getFile(run, profileName)).keys.size();
+            fileLoad[run] = System.nanoTime() - start;
+            assertEquals(PROFILES * KEYS, keys);
+        }
+
+        Log.i(TAG, PROFILES + " profiles of " + KEYS + " keys, median of " + RUNS + " runs. "
+                + "load: string sets " + median(setLoad) / 1000 + " us, files " + median(fileLoad) / 1000 + " us. "
+                + "save: string sets " + median(setSave) / 1000 + " us, files " + median(fileSave) / 1000 + " us");
+    }
+}
@@ -0,0 +1,48 @@
+package xtr.keymapper.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import android.os.Debug;
+import android.view.MotionEvent;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Builds the touch events injected by Input, without injecting them since the test app
+ * is not allowed to. A move of a pointer that is already down must not allocate.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InputAllocationTest {
+    private static final int POINTER_ID = 7;
+    private static final int WARMUP_MOVES = 100;
+    private static final int MOVES = 1000;
+
+    private static void move(Input input, int i) {
+        MotionEvent event = input.obtainTouchEvent(MotionEvent.ACTION_MOVE, POINTER_ID, 1f, 100 + i % 50, 200 - i % 50);
+        assertNotNull(event);
+        event.recycle();
+    }
+
+    @Test
+    @SuppressWarnings("deprecation") // Allocation counting is still supported for debugging
+    public void moveDoesNotAllocate() {
+        Input input = new Input();
+        MotionEvent down = input.obtainTouchEvent(MotionEvent.ACTION_DOWN, POINTER_ID, 1f, 100, 200);
+        assertNotNull(down);
+        down.recycle();
+        // Fills the MotionEvent pool and resolves anything loaded lazily
+        for (int i = 0; i < WARMUP_MOVES; i++) move(input, i);
+
+        Debug.startAllocCounting();
+        int start = Debug.getThreadAllocCount();
+        for (int i = 0; i < MOVES; i++) move(input, i);
+        int allocations = Debug.getThreadAllocCount() - start;
+        Debug.stopAllocCounting();
+
+        assertEquals("allocations for " + MOVES + " moves", 0, allocations);
+    }
+}
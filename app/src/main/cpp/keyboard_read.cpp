@@ -0,0 +1,215 @@
+#include <linux/input-event-codes.h>
+#include <linux/input.h>
+
+#include <sys/poll.h>
+#include <sys/ioctl.h>
+#include <sys/inotify.h>
+#include <sys/eventfd.h>
+#include <fcntl.h>
+#include <unistd.h>
+#include <pthread.h>
+#include <jni.h>
+
+#include <climits>
+#include <cstring>
+#include <cstdio>
+#include <string>
+#include <vector>
+#include <thread>
+#include <atomic>
+#include "evdev_common.h"
+
+using std::string;
+
+#define INPUT_DIR "/dev/input"
+
+static JavaVM *javaVM;
+static jobject remoteServiceObj;
+static jmethodID sendKeyEvent, addMouseDevice;
+
+static std::atomic<bool> running = false;
+
+static std::thread looper;
+
+// poll_fds[0] is used to wake up the looper, poll_fds[1] watches /dev/input for new devices
+static std::vector<pollfd> poll_fds;
+static std::vector<string> device_paths;
+// False for mice without keyboard keys, they are only read until they are handed over to mouse_read.c
+static std::vector<bool> has_keys;
+static size_t mouse_device = 0;
+
+extern "C" JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM* vm, void* /*reserved*/) {
+	JNIEnv* env;
+	javaVM = vm;
+	if (vm->GetEnv((void**)&env, JNI_VERSION_1_6) != JNI_OK) {
+		return JNI_ERR; // JNI version not supported.
+	}
+	return JNI_VERSION_1_6;
+}
+
+static bool HasKeyboardKeys(int device_fd) {
+	unsigned char bits[KEY_MAX / 8 + 1];
+	memset(bits, 0, sizeof(bits));
+	ioctl(device_fd, EVIOCGBIT(EV_KEY, sizeof(bits)), bits);
+	for (unsigned int i = 0; i < BTN_MISC / 8; i++)
+		if (bits[i]) return true;
+	return false;
+}
+
+static void AddDevice(const string& evdev) {
+	int device_fd = open(evdev.c_str(), O_RDONLY | O_NONBLOCK | O_CLOEXEC);
+	if (device_fd < 0) {
+		perror("opening device");
+		return;
+	}
+
+	// Only keyboards and mice are of interest, mice are reported back to be opened by mouse_read.c
+	if (!HasEventType(device_fd, EV_KEY) && !HasEventType(device_fd, EV_REL)) {
+		close(device_fd);
+		return;
+	}
+	poll_fds.push_back(pollfd{device_fd, POLLIN, 0});
+	device_paths.push_back(evdev);
+	has_keys.push_back(HasEventType(device_fd, EV_KEY) && HasKeyboardKeys(device_fd));
+}
+
+static void RemoveDevice(size_t i) {
+	close(poll_fds[i].fd);
+	poll_fds.erase(poll_fds.begin() + (long) i);
+	device_paths.erase(device_paths.begin() + (long) i);
+	has_keys.erase(has_keys.begin() + (long) i);
+	if (mouse_device == i) mouse_device = 0;
+	else if (mouse_device > i) mouse_device--;
+}
+
+static void HandleNewDevices(int inotify_fd) {
+	char buf[sizeof(struct inotify_event) + NAME_MAX + 1] __attribute__ ((aligned(__alignof__(struct inotify_event))));
+	ssize_t len = read(inotify_fd, buf, sizeof(buf));
+	for (char *ptr = buf; len > 0 && ptr < buf + len; ) {
+		auto *event = (struct inotify_event *) ptr;
+		if (event->len > 0 && event->name[0] == 'e') // is eventX
+			AddDevice(string(INPUT_DIR) + "/" + event->name);
+		ptr += sizeof(struct inotify_event) + event->len;
+	}
+}
+
+/*
+ * Hands the device over to mouse_read.c. A mouse without keyboard keys is then no longer read here,
+ * poll still reports it if it is unplugged. The previous mouse is read again to notice when it moves
+ */
+static void SetMouseDevice(JNIEnv *env, size_t i) {
+	if (mouse_device != 0 && !has_keys[mouse_device]) poll_fds[mouse_device].events = POLLIN;
+	mouse_device = i;
+	if (!has_keys[i]) poll_fds[i].events = 0;
+
+	jstring evdev = env->NewStringUTF(device_paths[i].c_str());
+	env->CallVoidMethod(remoteServiceObj, addMouseDevice, evdev);
+	env->DeleteLocalRef(evdev);
+}
+
+/*
+ * Main working thread function.
+ *     calling back to RemoteService::sendKeyEvent() with raw key events
+ */
+static void start() {
+	JNIEnv *env;
+	JavaVMAttachArgs args {JNI_VERSION_1_6, "keyboard_read", nullptr};
+	if (javaVM->AttachCurrentThread(&env, &args) != JNI_OK) return;
+
+	struct input_event events[64];
+	while(running) {
+		if (poll(poll_fds.data(), poll_fds.size(), -1) <= 0)
+			continue;
+
+		if (poll_fds[0].revents & POLLIN) break;
+		if (poll_fds[1].revents & POLLIN) HandleNewDevices(poll_fds[1].fd);
+
+		for (size_t i = poll_fds.size() - 1; i >= 2; i--) {
+			if (poll_fds[i].revents & (POLLHUP | POLLERR)) {
+				RemoveDevice(i);
+				continue;
+			}
+			if (!(poll_fds[i].revents & POLLIN)) continue;
+
+			ssize_t len = read(poll_fds[i].fd, events, sizeof(events));
+			if (len < (ssize_t) sizeof(struct input_event)) continue;
+
+			for (size_t n = 0; n < len / sizeof(struct input_event); n++) {
+				struct input_event &ie = events[n];
+				if (ie.type == EV_KEY && ie.code < BTN_MISC) {
+					env->CallVoidMethod(remoteServiceObj, sendKeyEvent, (jint) ie.code, ie.value);
+				} else if (ie.type == EV_REL && mouse_device != i) {
+					// Mouse device moved for the first time
+					SetMouseDevice(env, i);
+				}
+			}
+		}
+	}
+	javaVM->DetachCurrentThread();
+}
+
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_xtr_keymapper_server_RemoteService_startKeyboardReader(JNIEnv *env, jobject thiz) {
+	if (running) return JNI_TRUE;
+
+	poll_fds.clear();
+	device_paths.clear();
+	has_keys.clear();
+	mouse_device = 0;
+
+	int wake_fd = eventfd(0, EFD_CLOEXEC);
+	int inotify_fd = inotify_init1(IN_NONBLOCK | IN_CLOEXEC);
+	if (wake_fd < 0 || inotify_fd < 0 || inotify_add_watch(inotify_fd, INPUT_DIR, IN_CREATE) < 0) {
+		perror("keyboard reader");
+		if (wake_fd >= 0) close(wake_fd);
+		if (inotify_fd >= 0) close(inotify_fd);
+		return JNI_FALSE;
+	}
+	poll_fds.push_back(pollfd{wake_fd, POLLIN, 0});
+	poll_fds.push_back(pollfd{inotify_fd, POLLIN, 0});
+	device_paths.emplace_back();
+	device_paths.emplace_back();
+	has_keys.push_back(false);
+	has_keys.push_back(false);
+
+	for (auto & evdev : ListInputDevices())
+		AddDevice(evdev);
+
+	if (poll_fds.size() <= 2) {
+		printf("I: No input devices could be opened\n");
+		for (auto & poll_fd : poll_fds) close(poll_fd.fd);
+		poll_fds.clear();
+		return JNI_FALSE;
+	}
+
+	jclass clz = env->GetObjectClass(thiz);
+	sendKeyEvent = env->GetMethodID(clz, "sendKeyEvent", "(II)V");
+	addMouseDevice = env->GetMethodID(clz, "addMouseDevice", "(Ljava/lang/String;)V");
+	remoteServiceObj = env->NewGlobalRef(thiz);
+
+	running = true;
+	looper = std::thread(start);
+	// Named before it runs, for ThreadPolicy.java
+	pthread_setname_np(looper.native_handle(), "keyboard_read");
+	return JNI_TRUE;
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_xtr_keymapper_server_RemoteService_stopKeyboardReader(JNIEnv *env, jobject /*thiz*/) {
+	if (!running) return;
+	running = false;
+
+	uint64_t wake = 1;
+	write(poll_fds[0].fd, &wake, sizeof(wake));
+	looper.join();
+
+	for (auto & poll_fd : poll_fds) close(poll_fd.fd);
+	poll_fds.clear();
+	device_paths.clear();
+	has_keys.clear();
+
+	env->DeleteGlobalRef(remoteServiceObj);
+	remoteServiceObj = nullptr;
+}
@@ -9,7 +9,6 @@
 #include "mouse_cursor.h"
 
 int uinput_fd = -1;
-struct input_event ie {};
 const char* device_name = x_virtual_tablet;
 
 void setAbsMinMax(int width, int height) {
@@ -33,7 +32,6 @@ Java_xtr_keymapper_server_InputService_initMouseCursor
 
 	if (uinput_fd <= 0) return uinput_fd;
 
-	memset(&ie, 0, sizeof(struct input_event));
 	memset(&uinputSetup, 0x00, sizeof(uinputSetup));
 
 	strncpy(uinputSetup.name, device_name, strlen(device_name));
@@ -63,31 +61,20 @@ Java_xtr_keymapper_server_InputService_initMouseCursor
 	return 1;
 }
 
-void report() {
-    ie.type = EV_SYN;
-    ie.code = SYN_REPORT;
-    ie.value = 0;
-    write(uinput_fd, &ie, sizeof(struct input_event));
-}
-
-extern "C" JNIEXPORT void JNICALL
-Java_xtr_keymapper_server_InputService_cursorSetX
-(JNIEnv * /*env*/, jobject /*obj*/, jint x) {
-	ie.type = EV_ABS;
-	ie.code = ABS_X;
-	ie.value = x;
-	write(uinput_fd, &ie, sizeof(struct input_event));
-	report();
-}
-
 extern "C" JNIEXPORT void JNICALL
-Java_xtr_keymapper_server_InputService_cursorSetY
-(JNIEnv * /*env*/, jobject /*obj*/, jint y) {
-	ie.type = EV_ABS;
-	ie.code = ABS_Y;
-	ie.value = y;
-	write(uinput_fd, &ie, sizeof(struct input_event));
-	report();
+Java_xtr_keymapper_server_InputService_cursorSetPosition
+(JNIEnv * /*env*/, jobject /*obj*/, jint x, jint y) {
+	// Both axes in one frame, unchanged values are filtered by the input core
+	struct input_event frame[3] {};
+	frame[0].type = EV_ABS;
+	frame[0].code = ABS_X;
+	frame[0].value = x;
+	frame[1].type = EV_ABS;
+	frame[1].code = ABS_Y;
+	frame[1].value = y;
+	frame[2].type = EV_SYN;
+	frame[2].code = SYN_REPORT;
+	write(uinput_fd, frame, sizeof(frame));
 }
 
 extern "C" JNIEXPORT void JNICALL
@@ -10,6 +10,33 @@
 #include <assert.h>
 #include <arpa/inet.h>
 #include <paths.h>
+#include <errno.h>
+#include <stdatomic.h>
+#include <stddef.h>
+#include <stdint.h>
+#include <sys/eventfd.h>
+
+/*
+ * Single producer single consumer ring of mouse frames, placed in a direct ByteBuffer
+ * owned by MouseEventRing.java which reads the frames without a JNI call per frame.
+ * Producers are serialized by serviceContext.lock.
+ * Layout must match the offsets in MouseEventRing.java
+ */
+#define RING_CAPACITY 1024 // power of two
+#define RING_STOP ((uint64_t) 1 << 32)
+
+typedef struct mouse_event_ring {
+    _Atomic uint32_t head; // written by mouse reader thread
+    char pad0[60];
+    _Atomic uint32_t tail; // written by consumer thread
+    char pad1[60];
+    _Atomic uint32_t waiting; // consumer is blocked on event_fd
+    int32_t event_fd;
+    char pad2[56];
+    int32_t frames[RING_CAPACITY][4]; // dx, dy, wheel, buttons
+} eventRing;
+
+_Static_assert(offsetof(eventRing, frames) == 192, "eventRing layout changed");
 
 typedef struct input_service_context {
     JavaVM *javaVM;
@@ -19,6 +46,7 @@ typedef struct input_service_context {
     int done;
     int mouse_lock;
     int mouse_fd;
+    eventRing *ring;
 } serviceContext;
 serviceContext g_ctx;
 
@@ -45,9 +73,41 @@ JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM* vm, void* reserved) {
     return  JNI_VERSION_1_6;
 }
 
+#define BUTTON_MASK(code) (1 << ((code) - BTN_MOUSE))
+
+/*
+ * Called with serviceContext.lock held
+ * Returns false if the ring is full, the frame is then kept to be merged with the next one
+ */
+static bool ring_push(eventRing *ring, int dx, int dy, int wheel, int buttons) {
+    uint32_t head = atomic_load_explicit(&ring->head, memory_order_relaxed);
+    uint32_t tail = atomic_load_explicit(&ring->tail, memory_order_acquire);
+    if (head - tail >= RING_CAPACITY) return false;
+
+    int32_t *frame = ring->frames[head & (RING_CAPACITY - 1)];
+    frame[0] = dx;
+    frame[1] = dy;
+    frame[2] = wheel;
+    frame[3] = buttons;
+    atomic_store_explicit(&ring->head, head + 1, memory_order_seq_cst);
+
+    // Only wake up the consumer if it went to sleep
+    if (atomic_exchange_explicit(&ring->waiting, 0, memory_order_seq_cst)) {
+        uint64_t wake = 1;
+        write(ring->event_fd, &wake, sizeof(wake));
+    }
+    return true;
+}
+
+static void ring_stop(eventRing *ring) {
+    uint64_t stop = RING_STOP;
+    write(ring->event_fd, &stop, sizeof(stop));
+}
+
 /*
  * Main working thread function. From a pthread,
- *     calling back to InputService::updateTimer() to send mouse events
+ *     publishing one frame per SYN_REPORT to the ring read by MouseEventRing.java
+ *     or calling back to InputService::sendMouseFrame() if there is no ring
  */
 void* send_mouse_events(void* context) {
     serviceContext *pctx = (serviceContext *) context;
@@ -55,18 +115,23 @@ void* send_mouse_events(void* context) {
     JNIEnv *env;
     jint res = (*javaVM)->GetEnv(javaVM, (void **)&env, JNI_VERSION_1_6);
     if (res != JNI_OK) {
-        res = (*javaVM)->AttachCurrentThread(javaVM, &env, NULL);
+        JavaVMAttachArgs args = {JNI_VERSION_1_6, "mouse_read", NULL};
+        res = (*javaVM)->AttachCurrentThread(javaVM, &env, &args);
         if (JNI_OK != res) {
             return NULL;
         }
     }
-    // get inputService sendMouseEvent function
-    jmethodID mouseEvent = (*env)->GetMethodID(env, pctx->inputServiceClz, "sendMouseEvent", "(II)V");
+    // get inputService sendMouseFrame function
+    jmethodID mouseFrame = (*env)->GetMethodID(env, pctx->inputServiceClz, "sendMouseFrame", "(IIII)V");
 
     int mouse_fd = pctx->mouse_fd;
     int mouse_lock = 1;
     ioctl(mouse_fd, EVIOCGRAB, mouse_lock);
 
+    // Events are accumulated until SYN_REPORT and sent as one frame
+    int dx = 0, dy = 0, wheel = 0, buttons = 0;
+    bool dirty = false, dropped = false;
+
     struct input_event ie;
     while (read(mouse_fd, &ie, sizeof(struct input_event))) {
         pthread_mutex_lock(&pctx->lock);
@@ -84,15 +149,67 @@ void* send_mouse_events(void* context) {
             break;
         }
 
-        switch (ie.code) {
-            case REL_X :
-            case REL_Y :
-            case REL_WHEEL :
-            case BTN_MOUSE :
-            case BTN_RIGHT :
-            case BTN_EXTRA :
-            case BTN_SIDE :
-                if (mouse_lock) (*env)->CallVoidMethod(env, pctx->inputServiceObj, mouseEvent, ie.code, ie.value);
+        switch (ie.type) {
+            case EV_REL :
+                if (ie.code == REL_X) dx += ie.value;
+                else if (ie.code == REL_Y) dy += ie.value;
+                else if (ie.code == REL_WHEEL) wheel += ie.value;
+                else break;
+                dirty = true;
+                break;
+            case EV_KEY :
+                switch (ie.code) {
+                    case BTN_MOUSE :
+                    case BTN_RIGHT :
+                    case BTN_EXTRA :
+                    case BTN_SIDE :
+                        if (ie.value) buttons |= BUTTON_MASK(ie.code);
+                        else buttons &= ~BUTTON_MASK(ie.code);
+                        dirty = true;
+                        break;
+                }
+                break;
+            case EV_SYN :
+                if (ie.code == SYN_DROPPED) {
+                    // Kernel buffer overrun, discard events until the next SYN_REPORT
+                    dropped = true;
+                } else if (ie.code == SYN_REPORT) {
+                    if (dropped) {
+                        // Resync button state, motion of the dropped frames is lost
+                        unsigned char keys[KEY_MAX / 8 + 1];
+                        memset(keys, 0, sizeof(keys));
+                        ioctl(mouse_fd, EVIOCGKEY(sizeof(keys)), keys);
+                        buttons = 0;
+                        int codes[] = {BTN_MOUSE, BTN_RIGHT, BTN_EXTRA, BTN_SIDE};
+                        for (int i = 0; i < 4; i++)
+                            if (keys[codes[i] / 8] & (1 << (codes[i] % 8))) buttons |= BUTTON_MASK(codes[i]);
+                        dx = dy = wheel = 0;
+                        dropped = false;
+                        dirty = true;
+                    }
+                    if (!mouse_lock) {
+                        // Motion while the mouse is not grabbed belongs to the system cursor, it is not replayed later
+                        dx = dy = wheel = 0;
+                        dirty = false;
+                        break;
+                    }
+                    if (!dirty) break;
+
+                    pthread_mutex_lock(&pctx->lock);
+                    bool has_ring = pctx->ring != NULL;
+                    if (has_ring && ring_push(pctx->ring, dx, dy, wheel, buttons)) {
+                        dx = dy = wheel = 0;
+                        dirty = false;
+                    }
+                    pthread_mutex_unlock(&pctx->lock);
+
+                    if (dirty) {
+                        if (has_ring) break; // Ring is full, merge with the next frame
+                        (*env)->CallVoidMethod(env, pctx->inputServiceObj, mouseFrame, dx, dy, wheel, buttons);
+                        dx = dy = wheel = 0;
+                        dirty = false;
+                    }
+                }
                 break;
         }
     }
@@ -115,6 +232,8 @@ void startMouseThread(JNIEnv *env, jobject thiz) {
 
     int result = pthread_create(&threadInfo_, &threadAttr_, send_mouse_events, &g_ctx);
     assert(result == 0);
+    // Named before it runs, for ThreadPolicy.java
+    pthread_setname_np(threadInfo_, "mouse_read");
     pthread_attr_destroy(&threadAttr_);
     (void) result;
 }
@@ -139,7 +258,10 @@ JNIEXPORT void JNICALL
 Java_xtr_keymapper_server_InputService_stopMouse(JNIEnv *env, jobject thiz) {
     pthread_mutex_lock(&g_ctx.lock);
     g_ctx.done = 1;
+    eventRing *ring = g_ctx.ring;
+    g_ctx.ring = NULL;
     pthread_mutex_unlock(&g_ctx.lock);
+    if (ring != NULL) ring_stop(ring);
 
     // waiting for mouse read thread to flip the done flag
     struct timespec sleepTime;
@@ -165,4 +287,63 @@ Java_xtr_keymapper_server_InputService_setMouseLock(JNIEnv *env, jobject thiz, j
         g_ctx.mouse_lock = 0;
     }
     pthread_mutex_unlock(&g_ctx.lock);
-}
\ No newline at end of file
+}
+
+/*
+ * Interface to MouseEventRing.java:
+ *     Start publishing mouse frames to the ring in the given direct buffer
+ */
+JNIEXPORT jboolean JNICALL
+Java_xtr_keymapper_server_MouseEventRing_init(JNIEnv *env, jclass clazz, jobject buffer) {
+    eventRing *ring = (*env)->GetDirectBufferAddress(env, buffer);
+    if (ring == NULL || (*env)->GetDirectBufferCapacity(env, buffer) < (jlong) sizeof(eventRing))
+        return JNI_FALSE;
+
+    memset(ring, 0, sizeof(eventRing));
+    ring->event_fd = eventfd(0, EFD_CLOEXEC);
+    if (ring->event_fd < 0) {
+        perror("eventfd");
+        return JNI_FALSE;
+    }
+
+    pthread_mutex_lock(&g_ctx.lock);
+    eventRing *previous = g_ctx.ring;
+    g_ctx.ring = ring;
+    pthread_mutex_unlock(&g_ctx.lock);
+    if (previous != NULL) ring_stop(previous);
+    return JNI_TRUE;
+}
+
+/*
+ * Interface to MouseEventRing.java:
+ *     Marks frames up to consumed as read and blocks until more frames are available
+ *     Returns the new head, or -1 if the ring was stopped
+ */
+JNIEXPORT jint JNICALL
+Java_xtr_keymapper_server_MouseEventRing_waitFrames(JNIEnv *env, jclass clazz, jobject buffer, jint consumed) {
+    eventRing *ring = (*env)->GetDirectBufferAddress(env, buffer);
+    atomic_store_explicit(&ring->tail, (uint32_t) consumed, memory_order_release);
+
+    while (true) {
+        uint32_t head = atomic_load_explicit(&ring->head, memory_order_acquire);
+        if (head != (uint32_t) consumed) return (jint) head;
+
+        atomic_store_explicit(&ring->waiting, 1, memory_order_seq_cst);
+        // Producer may have published before it could see the waiting flag
+        head = atomic_load_explicit(&ring->head, memory_order_seq_cst);
+        if (head != (uint32_t) consumed) {
+            atomic_store_explicit(&ring->waiting, 0, memory_order_relaxed);
+            return (jint) head;
+        }
+
+        uint64_t count = 0;
+        if (read(ring->event_fd, &count, sizeof(count)) < 0) {
+            if (errno == EINTR) continue;
+            count = RING_STOP;
+        }
+        if (count >= RING_STOP) {
+            close(ring->event_fd);
+            return -1;
+        }
+    }
+}
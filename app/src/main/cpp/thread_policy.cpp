@@ -0,0 +1,27 @@
+#include <jni.h>
+
+#include <sched.h>
+#include <cerrno>
+
+/*
+ * Scheduling of input threads by thread id, see ThreadPolicy.java
+ * Return 0 on success or errno
+ */
+
+extern "C" JNIEXPORT jint JNICALL
+Java_xtr_keymapper_server_ThreadPolicy_setScheduler
+(JNIEnv * /*env*/, jclass /*clazz*/, jint tid, jint policy, jint priority) {
+	struct sched_param param {};
+	param.sched_priority = priority;
+	return sched_setscheduler(tid, policy, &param) == 0 ? 0 : errno;
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_xtr_keymapper_server_ThreadPolicy_setAffinity
+(JNIEnv * /*env*/, jclass /*clazz*/, jint tid, jint cpu_mask) {
+	cpu_set_t set;
+	CPU_ZERO(&set);
+	for (int cpu = 0; cpu < 32; cpu++)
+		if (cpu_mask & (1 << cpu)) CPU_SET(cpu, &set);
+	return sched_setaffinity(tid, sizeof(set), &set) == 0 ? 0 : errno;
+}
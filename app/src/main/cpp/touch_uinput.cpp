@@ -0,0 +1,97 @@
+#include <jni.h>
+
+#include <linux/input.h>
+#include <linux/uinput.h>
+#include <fcntl.h>
+#include <unistd.h>
+#include <cstring>
+
+// Virtual touchscreen using multitouch protocol B, see Documentation/input/multi-touch-protocol.rst
+#define TOUCH_DEVICE_NAME "x-virtual-touchscreen"
+
+int touch_fd = -1;
+
+void setAbsRange(int code, int min, int max) {
+	struct uinput_abs_setup uinputAbsSetup {};
+	uinputAbsSetup.code = code;
+	uinputAbsSetup.absinfo = input_absinfo {0, min, max, 0 , 0};
+	ioctl(touch_fd, UI_ABS_SETUP, &uinputAbsSetup);
+}
+
+extern "C" JNIEXPORT jboolean JNICALL
+Java_xtr_keymapper_server_UinputTouchscreen_init
+(JNIEnv * /*env*/, jobject /*obj*/, jint width, jint height, jint slots) {
+	struct uinput_setup uinputSetup {};
+	touch_fd = open("/dev/uinput", O_WRONLY | O_NONBLOCK | O_CLOEXEC);
+
+	if (touch_fd < 0) return JNI_FALSE;
+
+	strncpy(uinputSetup.name, TOUCH_DEVICE_NAME, UINPUT_MAX_NAME_SIZE - 1);
+	uinputSetup.id.version = 1;
+	uinputSetup.id.bustype = BUS_VIRTUAL;
+
+	ioctl(touch_fd, UI_SET_EVBIT, EV_ABS);
+	ioctl(touch_fd, UI_SET_EVBIT, EV_KEY);
+	// Mapped to the display like a built-in touchscreen
+	ioctl(touch_fd, UI_SET_PROPBIT, INPUT_PROP_DIRECT);
+
+	ioctl(touch_fd, UI_SET_KEYBIT, BTN_TOUCH);
+
+	ioctl(touch_fd, UI_SET_ABSBIT, ABS_MT_SLOT);
+	ioctl(touch_fd, UI_SET_ABSBIT, ABS_MT_TRACKING_ID);
+	ioctl(touch_fd, UI_SET_ABSBIT, ABS_MT_POSITION_X);
+	ioctl(touch_fd, UI_SET_ABSBIT, ABS_MT_POSITION_Y);
+
+	setAbsRange(ABS_MT_SLOT, 0, slots - 1);
+	setAbsRange(ABS_MT_TRACKING_ID, 0, 0xffff);
+	setAbsRange(ABS_MT_POSITION_X, 0, width - 1);
+	setAbsRange(ABS_MT_POSITION_Y, 0, height - 1);
+
+	ioctl(touch_fd, UI_DEV_SETUP, &uinputSetup);
+
+	if(ioctl(touch_fd, UI_DEV_CREATE)) {
+		close(touch_fd);
+		touch_fd = -1;
+		return JNI_FALSE;
+	}
+	return JNI_TRUE;
+}
+
+void setEvent(struct input_event &ie, int type, int code, int value) {
+	ie.type = type;
+	ie.code = code;
+	ie.value = value;
+}
+
+/*
+ * Writes one complete frame for a contact with a single write(),
+ * uinput handles each write under a lock so frames from different threads are not interleaved.
+ * A tracking id of -1 lifts the contact in the slot.
+ */
+extern "C" JNIEXPORT void JNICALL
+Java_xtr_keymapper_server_UinputTouchscreen_touch
+(JNIEnv * /*env*/, jobject /*obj*/, jint slot, jint tracking_id, jint x, jint y, jboolean touching) {
+	struct input_event frame[6] {};
+	int n = 0;
+
+	// Repeated values are filtered by the input core, so the full state can be sent every time
+	setEvent(frame[n++], EV_ABS, ABS_MT_SLOT, slot);
+	setEvent(frame[n++], EV_ABS, ABS_MT_TRACKING_ID, tracking_id);
+	if (tracking_id >= 0) {
+		setEvent(frame[n++], EV_ABS, ABS_MT_POSITION_X, x);
+		setEvent(frame[n++], EV_ABS, ABS_MT_POSITION_Y, y);
+	}
+	setEvent(frame[n++], EV_KEY, BTN_TOUCH, touching ? 1 : 0);
+	setEvent(frame[n++], EV_SYN, SYN_REPORT, 0);
+
+	write(touch_fd, frame, n * sizeof(struct input_event));
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_xtr_keymapper_server_UinputTouchscreen_destroy (JNIEnv * /*env*/, jobject /*obj*/) {
+	if (touch_fd >= 0) {
+		ioctl(touch_fd, UI_DEV_DESTROY);
+		close(touch_fd);
+		touch_fd = -1;
+	}
+}
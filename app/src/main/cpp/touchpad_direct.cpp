@@ -6,6 +6,7 @@
 #include <sys/poll.h>
 #include <fcntl.h>
 #include <unistd.h>
+#include <pthread.h>
 #include <jni.h>
 
 #include <dirent.h>
@@ -124,6 +125,7 @@ Java_xtr_keymapper_server_InputService_startTouchpadDirect(JNIEnv *env, jobject
 	}
 
 	looper = std::thread(start);
+	pthread_setname_np(looper.native_handle(), "touchpad");
 }
 
 extern "C"
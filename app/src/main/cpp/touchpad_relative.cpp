@@ -6,6 +6,7 @@
 #include <sys/poll.h>
 #include <fcntl.h>
 #include <unistd.h>
+#include <pthread.h>
 #include <dirent.h>
 
 #include <cstring>
@@ -125,6 +126,7 @@ Java_xtr_keymapper_server_InputService_startTouchpadRelative(JNIEnv *env, jobjec
 		return;
 	}
 	looper = std::thread(start);
+	pthread_setname_np(looper.native_handle(), "touchpad");
 }
 
 extern "C"
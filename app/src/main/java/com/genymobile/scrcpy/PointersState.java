@@ -2,67 +2,74 @@ package com.genymobile.scrcpy;
 
 import android.view.MotionEvent;
 
-import java.util.ArrayList;
-import java.util.List;
-
+/**
+ * Pointer state stored in primitive arrays indexed by local id,
+ * with bitmasks of the local ids in use and of the pointers which are UP.
+ * No allocation is done after construction, methods may be called from several threads.
+ */
 public class PointersState {
 
     public static final int MAX_POINTERS = 10;
 
-    private final List<Pointer> pointers = new ArrayList<>();
+    /**
+     * Pointer id as received from the client, for each local id.
+     */
+    private final long[] ids = new long[MAX_POINTERS];
+    private final float[] x = new float[MAX_POINTERS];
+    private final float[] y = new float[MAX_POINTERS];
+    private final float[] pressure = new float[MAX_POINTERS];
+
+    /**
+     * Local ids in use, using the lowest possible values to fill the {@link android.view.MotionEvent.PointerProperties PointerProperties}.
+     */
+    private int usedMask;
+    private int upMask;
 
-    private int indexOf(long id) {
-        for (int i = 0; i < pointers.size(); ++i) {
-            Pointer pointer = pointers.get(i);
-            if (pointer.getId() == id) {
-                return i;
+    /**
+     * @return the local id of the pointer, allocating a new one if needed, or -1 if it's full
+     */
+    public synchronized int getLocalId(long id) {
+        for (int mask = usedMask; mask != 0; mask &= mask - 1) {
+            int localId = Integer.numberOfTrailingZeros(mask);
+            if (ids[localId] == id) {
+                // already exists, return it
+                return localId;
             }
         }
-        return -1;
+        int localId = Integer.numberOfTrailingZeros(~usedMask);
+        if (localId >= MAX_POINTERS) {
+            // it's full
+            return -1;
+        }
+        usedMask |= 1 << localId;
+        upMask &= ~(1 << localId);
+        ids[localId] = id;
+        return localId;
     }
 
-    private boolean isLocalIdAvailable(int localId) {
-        for (int i = 0; i < pointers.size(); ++i) {
-            Pointer pointer = pointers.get(i);
-            if (pointer.getLocalId() == localId) {
-                return false;
-            }
-        }
-        return true;
+    /**
+     * @return the index of the pointer in the next motion event initialized by {@link #update}
+     */
+    public synchronized int getPointerIndex(int localId) {
+        return Integer.bitCount(usedMask & ((1 << localId) - 1));
     }
 
-    private int nextUnusedLocalId() {
-        for (int localId = 0; localId < MAX_POINTERS; ++localId) {
-            if (isLocalIdAvailable(localId)) {
-                return localId;
-            }
-        }
-        return -1;
+    public synchronized void setPoint(int localId, float x, float y, float pressure) {
+        this.x[localId] = x;
+        this.y[localId] = y;
+        this.pressure[localId] = pressure;
     }
 
-    public Pointer get(int index) {
-        return pointers.get(index);
+    public synchronized void setUp(int localId, boolean up) {
+        if (up) upMask |= 1 << localId;
+        else upMask &= ~(1 << localId);
     }
 
-    public int getPointerIndex(long id) {
-        int index = indexOf(id);
-        if (index != -1) {
-            // already exists, return it
-            return index;
-        }
-        if (pointers.size() >= MAX_POINTERS) {
-            // it's full
-            return -1;
-        }
-        // id 0 is reserved for mouse events
-        int localId = nextUnusedLocalId();
-        if (localId == -1) {
-            throw new AssertionError("pointers.size() < maxFingers implies that a local id is available");
-        }
-        Pointer pointer = new Pointer(id, localId);
-        pointers.add(pointer);
-        // return the index of the pointer
-        return pointers.size() - 1;
+    /**
+     * @return true if any pointer is down, pointers which are UP but not yet removed are ignored
+     */
+    public synchronized boolean hasPointersDown() {
+        return (usedMask & ~upMask) != 0;
     }
 
     /**
@@ -72,32 +79,21 @@ public class PointersState {
      * @param coords the pointer coordinates
      * @return The number of items initialized (the number of pointers).
      */
-    public int update(MotionEvent.PointerProperties[] props, MotionEvent.PointerCoords[] coords) {
-        int count = pointers.size();
-        for (int i = 0; i < count; ++i) {
-            Pointer pointer = pointers.get(i);
+    public synchronized int update(MotionEvent.PointerProperties[] props, MotionEvent.PointerCoords[] coords) {
+        int count = 0;
+        for (int mask = usedMask; mask != 0; mask &= mask - 1) {
+            int localId = Integer.numberOfTrailingZeros(mask);
 
-            // id 0 is reserved for mouse events
-            props[i].id = pointer.getLocalId();
+            props[count].id = localId;
 
-            Point point = pointer.getPoint();
-            coords[i].x = point.getX();
-            coords[i].y = point.getY();
-            coords[i].pressure = pointer.getPressure();
+            coords[count].x = x[localId];
+            coords[count].y = y[localId];
+            coords[count].pressure = pressure[localId];
+            count++;
         }
-        cleanUp();
+        // Remove all pointers which are UP
+        usedMask &= ~upMask;
+        upMask = 0;
         return count;
     }
-
-    /**
-     * Remove all pointers which are UP.
-     */
-    private void cleanUp() {
-        for (int i = pointers.size() - 1; i >= 0; --i) {
-            Pointer pointer = pointers.get(i);
-            if (pointer.isUp()) {
-                pointers.remove(i);
-            }
-        }
-    }
 }
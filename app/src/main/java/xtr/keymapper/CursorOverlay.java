@@ -0,0 +1,65 @@
+package xtr.keymapper;
+
+import android.graphics.PixelFormat;
+import android.view.Gravity;
+import android.view.View;
+import android.view.WindowManager;
+
+/**
+ * Overlay window the size of the cursor image.
+ * Moving the window only changes the position of its surface, so the cursor is not redrawn
+ * and no full screen layer has to be composited over the app.
+ * Must be used from the main thread.
+ */
+public class CursorOverlay {
+    private final WindowManager windowManager;
+    private final View cursorView;
+    private final WindowManager.LayoutParams params;
+
+    public CursorOverlay(WindowManager windowManager, View cursorView, int type) {
+        this.windowManager = windowManager;
+        this.cursorView = cursorView;
+        params = new WindowManager.LayoutParams(
+                WindowManager.LayoutParams.WRAP_CONTENT, WindowManager.LayoutParams.WRAP_CONTENT,
+                type,
+                // Don't let the cursor grab the input focus
+                WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE |
+                        WindowManager.LayoutParams.FLAG_NOT_TOUCHABLE |
+                        WindowManager.LayoutParams.FLAG_FULLSCREEN |
+                        WindowManager.LayoutParams.FLAG_LAYOUT_IN_SCREEN |
+                        // Allow the cursor to be partly outside the screen at the edges
+                        WindowManager.LayoutParams.FLAG_LAYOUT_NO_LIMITS |
+                        WindowManager.LayoutParams.FLAG_HARDWARE_ACCELERATED,
+                // Make the underlying application window visible
+                // through the cursor
+                PixelFormat.TRANSLUCENT);
+        params.gravity = Gravity.TOP | Gravity.START;
+        params.layoutInDisplayCutoutMode = WindowManager.LayoutParams.LAYOUT_IN_DISPLAY_CUTOUT_MODE_SHORT_EDGES;
+    }
+
+    public void add() {
+        windowManager.addView(cursorView, params);
+    }
+
+    public void remove() {
+        windowManager.removeView(cursorView);
+    }
+
+    public boolean isAttachedToWindow() {
+        return cursorView.isAttachedToWindow();
+    }
+
+    public void setVisibility(int visibility) {
+        cursorView.setVisibility(visibility);
+    }
+
+    /**
+     * @param x position of the top left corner of the cursor image
+     */
+    public void setPosition(int x, int y) {
+        if (params.x == x && params.y == y) return;
+        params.x = x;
+        params.y = y;
+        if (cursorView.isAttachedToWindow()) windowManager.updateViewLayout(cursorView, params);
+    }
+}
@@ -1,6 +1,14 @@
 package xtr.keymapper;
 
 public class InputEventCodes {
+    public static final int EV_SYN = 0;
+    public static final int EV_KEY = 1;
+    public static final int EV_REL = 2;
+    public static final int KEY_LEFTCTRL = 29;
+    public static final int KEY_GRAVE = 41;
+    public static final int KEY_LEFTALT = 56;
+    public static final int KEY_RIGHTCTRL = 97;
+    public static final int KEY_RIGHTALT = 100;
     public static final int REL_X = 0;
     public static final int REL_Y = 1;
     public static final int REL_WHEEL = 8;
@@ -12,4 +20,94 @@ public class InputEventCodes {
     public static final String[] ARROW_KEYS = {"KEY_UP", "KEY_DOWN", "KEY_LEFT", "KEY_RIGHT"};
     public static final String[] WASD_KEYS = {"KEY_W", "KEY_S", "KEY_A", "KEY_D"};
 
+    // Keyboard key labels as printed by getevent -ql, indexed by evdev key code
+    private static final String[] KEY_NAMES = {
+            "KEY_RESERVED", "KEY_ESC", "KEY_1", "KEY_2", // 0
+            "KEY_3", "KEY_4", "KEY_5", "KEY_6", // 4
+            "KEY_7", "KEY_8", "KEY_9", "KEY_0", // 8
+            "KEY_MINUS", "KEY_EQUAL", "KEY_BACKSPACE", "KEY_TAB", // 12
+            "KEY_Q", "KEY_W", "KEY_E", "KEY_R", // 16
+            "KEY_T", "KEY_Y", "KEY_U", "KEY_I", // 20
+            "KEY_O", "KEY_P", "KEY_LEFTBRACE", "KEY_RIGHTBRACE", // 24
+            "KEY_ENTER", "KEY_LEFTCTRL", "KEY_A", "KEY_S", // 28
+            "KEY_D", "KEY_F", "KEY_G", "KEY_H", // 32
+            "KEY_J", "KEY_K", "KEY_L", "KEY_SEMICOLON", // 36
+            "KEY_APOSTROPHE", "KEY_GRAVE", "KEY_LEFTSHIFT", "KEY_BACKSLASH", // 40
+            "KEY_Z", "KEY_X", "KEY_C", "KEY_V", // 44
+            "KEY_B", "KEY_N", "KEY_M", "KEY_COMMA", // 48
+            "KEY_DOT", "KEY_SLASH", "KEY_RIGHTSHIFT", "KEY_KPASTERISK", // 52
+            "KEY_LEFTALT", "KEY_SPACE", "KEY_CAPSLOCK", "KEY_F1", // 56
+            "KEY_F2", "KEY_F3", "KEY_F4", "KEY_F5", // 60
+            "KEY_F6", "KEY_F7", "KEY_F8", "KEY_F9", // 64
+            "KEY_F10", "KEY_NUMLOCK", "KEY_SCROLLLOCK", "KEY_KP7", // 68
+            "KEY_KP8", "KEY_KP9", "KEY_KPMINUS", "KEY_KP4", // 72
+            "KEY_KP5", "KEY_KP6", "KEY_KPPLUS", "KEY_KP1", // 76
+            "KEY_KP2", "KEY_KP3", "KEY_KP0", "KEY_KPDOT", // 80
+            null, "KEY_ZENKAKUHANKAKU", "KEY_102ND", "KEY_F11", // 84
+            "KEY_F12", "KEY_RO", "KEY_KATAKANA", "KEY_HIRAGANA", // 88
+            "KEY_HENKAN", "KEY_KATAKANAHIRAGANA", "KEY_MUHENKAN", "KEY_KPJPCOMMA", // 92
+            "KEY_KPENTER", "KEY_RIGHTCTRL", "KEY_KPSLASH", "KEY_SYSRQ", // 96
+            "KEY_RIGHTALT", "KEY_LINEFEED", "KEY_HOME", "KEY_UP", // 100
+            "KEY_PAGEUP", "KEY_LEFT", "KEY_RIGHT", "KEY_END", // 104
+            "KEY_DOWN", "KEY_PAGEDOWN", "KEY_INSERT", "KEY_DELETE", // 108
+            "KEY_MACRO", "KEY_MUTE", "KEY_VOLUMEDOWN", "KEY_VOLUMEUP", // 112
+            "KEY_POWER", "KEY_KPEQUAL", "KEY_KPPLUSMINUS", "KEY_PAUSE", // 116
+            "KEY_SCALE", "KEY_KPCOMMA", "KEY_HANGEUL", "KEY_HANJA", // 120
+            "KEY_YEN", "KEY_LEFTMETA", "KEY_RIGHTMETA", "KEY_COMPOSE", // 124
+            "KEY_STOP", "KEY_AGAIN", "KEY_PROPS", "KEY_UNDO", // 128
+            "KEY_FRONT", "KEY_COPY", "KEY_OPEN", "KEY_PASTE", // 132
+            "KEY_FIND", "KEY_CUT", "KEY_HELP", "KEY_MENU", // 136
+            "KEY_CALC", "KEY_SETUP", "KEY_SLEEP", "KEY_WAKEUP", // 140
+            "KEY_FILE", "KEY_SENDFILE", "KEY_DELETEFILE", "KEY_XFER", // 144
+            "KEY_PROG1", "KEY_PROG2", "KEY_WWW", "KEY_MSDOS", // 148
+            "KEY_COFFEE", "KEY_ROTATE_DISPLAY", "KEY_CYCLEWINDOWS", "KEY_MAIL", // 152
+            "KEY_BOOKMARKS", "KEY_COMPUTER", "KEY_BACK", "KEY_FORWARD", // 156
+            "KEY_CLOSECD", "KEY_EJECTCD", "KEY_EJECTCLOSECD", "KEY_NEXTSONG", // 160
+            "KEY_PLAYPAUSE", "KEY_PREVIOUSSONG", "KEY_STOPCD", "KEY_RECORD", // 164
+            "KEY_REWIND", "KEY_PHONE", "KEY_ISO", "KEY_CONFIG", // 168
+            "KEY_HOMEPAGE", "KEY_REFRESH", "KEY_EXIT", "KEY_MOVE", // 172
+            "KEY_EDIT", "KEY_SCROLLUP", "KEY_SCROLLDOWN", "KEY_KPLEFTPAREN", // 176
+            "KEY_KPRIGHTPAREN", "KEY_NEW", "KEY_REDO", "KEY_F13", // 180
+            "KEY_F14", "KEY_F15", "KEY_F16", "KEY_F17", // 184
+            "KEY_F18", "KEY_F19", "KEY_F20", "KEY_F21", // 188
+            "KEY_F22", "KEY_F23", "KEY_F24", null, // 192
+            null, null, null, null, // 196
+            "KEY_PLAYCD", "KEY_PAUSECD", "KEY_PROG3", "KEY_PROG4", // 200
+            "KEY_ALL_APPLICATIONS", "KEY_SUSPEND", "KEY_CLOSE", "KEY_PLAY", // 204
+            "KEY_FASTFORWARD", "KEY_BASSBOOST", "KEY_PRINT", "KEY_HP", // 208
+            "KEY_CAMERA", "KEY_SOUND", "KEY_QUESTION", "KEY_EMAIL", // 212
+            "KEY_CHAT", "KEY_SEARCH", "KEY_CONNECT", "KEY_FINANCE", // 216
+            "KEY_SPORT", "KEY_SHOP", "KEY_ALTERASE", "KEY_CANCEL", // 220
+            "KEY_BRIGHTNESSDOWN", "KEY_BRIGHTNESSUP", "KEY_MEDIA", "KEY_SWITCHVIDEOMODE", // 224
+            "KEY_KBDILLUMTOGGLE", "KEY_KBDILLUMDOWN", "KEY_KBDILLUMUP", "KEY_SEND", // 228
+            "KEY_REPLY", "KEY_FORWARDMAIL", "KEY_SAVE", "KEY_DOCUMENTS", // 232
+            "KEY_BATTERY", "KEY_BLUETOOTH", "KEY_WLAN", "KEY_UWB", // 236
+            "KEY_UNKNOWN", "KEY_VIDEO_NEXT", "KEY_VIDEO_PREV", "KEY_BRIGHTNESS_CYCLE", // 240
+            "KEY_BRIGHTNESS_AUTO", "KEY_DISPLAY_OFF", "KEY_WWAN", "KEY_RFKILL", // 244
+            "KEY_MICMUTE", null, null, null, // 248
+            null, null, null, null // 252
+    };
+
+    public static final int KEY_CNT = KEY_NAMES.length;
+
+    /**
+     * @param code evdev key code
+     * @return label of the key like KEY_X, or null if it is not a keyboard key
+     */
+    public static String getKeyName(int code) {
+        if (code < 0 || code >= KEY_NAMES.length) return null;
+        return KEY_NAMES[code];
+    }
+
+    /**
+     * @param name label of the key like KEY_X
+     * @return evdev key code, or -1 if it is not a keyboard key
+     */
+    public static int getKeyCode(String name) {
+        if (name == null) return -1;
+        for (int code = 0; code < KEY_NAMES.length; code++)
+            if (name.equals(KEY_NAMES[code])) return code;
+        return -1;
+    }
+
 }
@@ -9,7 +9,6 @@ import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.graphics.PixelFormat;
 import android.graphics.Point;
 import android.os.Binder;
 import android.os.Build;
@@ -97,7 +96,7 @@ public class TouchPointer extends Service {
             this.selectedProfile = "Default";
         }
 
-        KeymapProfile keymapProfile = new KeymapProfiles(this).getProfile(selectedProfile);
+        KeymapProfile keymapProfile = new KeymapProfiles(this).getCachedProfile(selectedProfile);
         connectRemoteService(keymapProfile);
 
         return super.onStartCommand(i, flags, startId);
@@ -105,7 +104,7 @@ public class TouchPointer extends Service {
 
     public void launchProfile(String profileName) {
         this.selectedProfile = profileName;
-        KeymapProfile keymapProfile = new KeymapProfiles(this).getProfile(selectedProfile);
+        KeymapProfile keymapProfile = new KeymapProfiles(this).getCachedProfile(selectedProfile);
         connectRemoteService(keymapProfile);
     }
 
@@ -123,7 +122,7 @@ public class TouchPointer extends Service {
                 }
                 return;
             }
-            KeymapConfig keymapConfig = new KeymapConfig(this);
+            KeymapConfig keymapConfig = KeymapConfig.getCached(this);
             mWindowManager = getSystemService(WindowManager.class);
             Display display = mWindowManager.getDefaultDisplay();
             Point size = new Point();
@@ -173,7 +172,7 @@ public class TouchPointer extends Service {
      */
     public final IRemoteServiceCallback mCallback = new IRemoteServiceCallback.Stub() {
 
-        private View cursorView = null;
+        private CursorOverlay cursorOverlay = null;
 
         @Override
         public void launchEditor() {
@@ -191,22 +190,22 @@ public class TouchPointer extends Service {
 
         @Override
         public KeymapProfile requestKeymapProfile() {
-            return new KeymapProfiles(TouchPointer.this).getProfile(selectedProfile);
+            return new KeymapProfiles(TouchPointer.this).getCachedProfile(selectedProfile);
         }
 
         @Override
         public KeymapConfig requestKeymapConfig() {
-            return new KeymapConfig(TouchPointer.this);
+            return KeymapConfig.getCached(TouchPointer.this);
         }
 
         @UiThread
         @Override
         public void switchProfiles() { mHandler.post(() -> {
             KeymapProfiles keymapProfiles = new KeymapProfiles(TouchPointer.this);
-            KeymapProfile keymapProfile = keymapProfiles.getProfile(selectedProfile);
+            KeymapProfile keymapProfile = keymapProfiles.getCachedProfile(selectedProfile);
             String application = keymapProfile.packageName;
 
-            if (keymapProfiles.getAllProfilesForApp(application).size() == 1) {
+            if (keymapProfiles.getProfileNamesForApp(application).size() == 1) {
                 Toast.makeText(TouchPointer.this, "Only one profile saved for " + application, Toast.LENGTH_SHORT).show();
                 return;
             }
@@ -214,7 +213,7 @@ public class TouchPointer extends Service {
             ProfileSelector.select(TouchPointer.this, profile -> {
                 TouchPointer.this.selectedProfile = profile;
                 // Reloading profile
-                connectRemoteService(keymapProfiles.getProfile(profile));
+                connectRemoteService(keymapProfiles.getCachedProfile(profile));
             }, application);
         });
         }
@@ -225,8 +224,10 @@ public class TouchPointer extends Service {
 
             // Set combined pointer mode automatically for 14 QPR3 and above
             if (keymapConfig.pointerMode == KeymapConfig.POINTER_OVERLAY) {
-                keymapConfig.pointerMode = KeymapConfig.POINTER_COMBINED;
-                keymapConfig.applySharedPrefs();
+                // The cached config is shared, change a copy loaded from the settings
+                KeymapConfig newConfig = new KeymapConfig(TouchPointer.this);
+                newConfig.pointerMode = KeymapConfig.POINTER_COMBINED;
+                newConfig.applySharedPrefs();
                 activityCallback.stopPointer();
                 try {
                     mService.stopServer();
@@ -236,24 +237,12 @@ public class TouchPointer extends Service {
             }
 
             mHandler.post(() -> {
-                if(cursorView == null) {
-                    cursorView = CursorBinding.inflate(LayoutInflater.from(
+                if(cursorOverlay == null) {
+                    View cursorView = CursorBinding.inflate(LayoutInflater.from(
                             new ContextThemeWrapper(TouchPointer.this, R.style.Theme_XtMapper)
                     )).getRoot();
-                    WindowManager.LayoutParams params = new WindowManager.LayoutParams(
-                            WindowManager.LayoutParams.MATCH_PARENT, WindowManager.LayoutParams.MATCH_PARENT,
-                            WindowManager.LayoutParams.TYPE_APPLICATION_OVERLAY,
-                            // Don't let the cursor grab the input focus
-                            WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE |
-                                    WindowManager.LayoutParams.FLAG_NOT_TOUCHABLE |
-                                    WindowManager.LayoutParams.FLAG_FULLSCREEN |
-                                    WindowManager.LayoutParams.FLAG_LAYOUT_IN_SCREEN |
-                                    WindowManager.LayoutParams.FLAG_LAYOUT_INSET_DECOR |
-                                    WindowManager.LayoutParams.FLAG_HARDWARE_ACCELERATED,
-                            // Make the underlying application window visible
-                            // through the cursor
-                            PixelFormat.TRANSLUCENT);
-                    mWindowManager.addView(cursorView, params);
+                    cursorOverlay = new CursorOverlay(mWindowManager, cursorView, WindowManager.LayoutParams.TYPE_APPLICATION_OVERLAY);
+                    cursorOverlay.add();
                 }
             });
         }
@@ -261,24 +250,17 @@ public class TouchPointer extends Service {
         @Override
         public void disablePointer()  {
             mHandler.post(() -> {
-                if (cursorView != null) {
-                    mWindowManager.removeView(cursorView);
-                    cursorView = null;
+                if (cursorOverlay != null) {
+                    cursorOverlay.remove();
+                    cursorOverlay = null;
                 }
             });
         }
 
         @Override
-        public void setCursorX(int x)  {
+        public void setCursorPosition(int x, int y)  {
             mHandler.post(() -> {
-                if (cursorView != null) cursorView.setX(x);
-            });
-        }
-
-        @Override
-        public void setCursorY(int y)  {
-            mHandler.post(() -> {
-                if (cursorView != null) cursorView.setY(y);
+                if (cursorOverlay != null) cursorOverlay.setPosition(x, y);
             });
         }
     };
@@ -310,7 +292,7 @@ public class TouchPointer extends Service {
                     ProfileSelector.select(context, profile -> {
                         // Reloading profile
                         TouchPointer.this.selectedProfile = profile;
-                        KeymapProfile keymapProfile = keymapProfiles.getProfile(profile);
+                        KeymapProfile keymapProfile = keymapProfiles.getCachedProfile(profile);
                         if (!keymapProfile.disabled) {
                             connectRemoteService(keymapProfile);
                             Toast.makeText(TouchPointer.this, "Keymapping enabled for " + packageName, Toast.LENGTH_SHORT).show();
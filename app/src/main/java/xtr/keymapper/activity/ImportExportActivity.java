@@ -6,23 +6,37 @@ import android.content.pm.PackageManager;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.ViewGroup;
+import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.content.res.AppCompatResources;
 import androidx.recyclerview.widget.RecyclerView;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
@@ -36,7 +50,10 @@ import xtr.keymapper.keymap.KeymapProfiles;
 public class ImportExportActivity extends AppCompatActivity {
     private static final int WRITE_REQUEST_CODE = 101;
     private static final int READ_REQUEST_CODE = 102;
-    private ByteArrayOutputStream byteArrayOutputStream = null;
+    private static final String TAG = "ImportExportActivity";
+    private ArrayList<String> pendingExport = null;
+    // Export and import are done in the background, one at a time
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
     private ActivityImportExportBinding binding;
 
     @Override
@@ -60,31 +77,8 @@ public class ImportExportActivity extends AppCompatActivity {
 
     private void exportProfiles(ArrayList<String> profileNames) {
         if (profileNames.isEmpty()) return;
-        KeymapProfiles keymapProfiles = new KeymapProfiles(this);
-        try {
-            byteArrayOutputStream = new ByteArrayOutputStream();
-            ZipOutputStream zipOutputStream = new ZipOutputStream(byteArrayOutputStream);
-            profileNames.forEach(profileName -> {
-                ZipEntry zipEntry = new ZipEntry(profileName);
-                try {
-                    zipOutputStream.putNextEntry(zipEntry);
-                    keymapProfiles.sharedPref.getStringSet(profileName, new HashSet<>()).forEach(s -> {
-                        try {
-                            zipOutputStream.write(s.getBytes());
-                            zipOutputStream.write("\n".getBytes());
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
-                        }
-                    });
-                    zipOutputStream.closeEntry();
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            });
-            zipOutputStream.close();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        // Written after a file has been chosen
+        pendingExport = new ArrayList<>(profileNames);
 
         Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
         intent.putExtra(Intent.EXTRA_TITLE, "backup.zip");
@@ -96,53 +90,168 @@ public class ImportExportActivity extends AppCompatActivity {
     public void onActivityResult(int requestCode, int resultCode, Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
         if (requestCode == WRITE_REQUEST_CODE && resultCode == RESULT_OK) {
-                    if (data != null
-                            && data.getData() != null
-                                && byteArrayOutputStream != null) {
-                        try ( OutputStream outputStream =
-                                      getContentResolver().openOutputStream(data.getData())) {
-                            outputStream.write(byteArrayOutputStream.toByteArray());
-                            outputStream.close();
-                            byteArrayOutputStream = null;
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
-                        }
-                    }
-
+            if (data != null
+                    && data.getData() != null
+                    && pendingExport != null) {
+                ArrayList<String> profileNames = pendingExport;
+                pendingExport = null;
+                Uri uri = data.getData();
+                executor.execute(() -> writeProfiles(uri, profileNames));
+            }
         } else if (requestCode == READ_REQUEST_CODE && resultCode == RESULT_OK) {
             if (data != null
                     && data.getData() != null) {
-                importProfiles(data.getData());
+                Uri uri = data.getData();
+                executor.execute(() -> importProfiles(uri));
+            }
+        }
+    }
+
+    /**
+     * Streams the profiles into the chosen file, one zip entry with the text format for each profile
+     */
+    @WorkerThread
+    private void writeProfiles(Uri uri, ArrayList<String> profileNames) {
+        KeymapProfiles keymapProfiles = new KeymapProfiles(this);
+        try (OutputStream outputStream = getContentResolver().openOutputStream(uri);
+             ZipOutputStream zipOutputStream = new ZipOutputStream(new BufferedOutputStream(outputStream));
+             Writer writer = new BufferedWriter(new OutputStreamWriter(zipOutputStream, StandardCharsets.UTF_8))) {
+            for (String profileName : profileNames) {
+                zipOutputStream.putNextEntry(new ZipEntry(profileName));
+                for (String line : keymapProfiles.getProfileLines(profileName)) {
+                    writer.write(line);
+                    writer.write('\n');
+                }
+                writer.flush();
+                zipOutputStream.closeEntry();
             }
+        } catch (IOException e) {
+            Log.e(TAG, e.getMessage(), e);
+            showResult(getString(R.string.export_failed));
+            return;
         }
+        showResult(getString(R.string.exported_profiles, profileNames.size()));
     }
 
+    private static class ImportedProfile {
+        final String name;
+        final ArrayList<String> lines = new ArrayList<>();
+        String error;
+        String hash;
+
+        ImportedProfile(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Zip entries are read in order and decoded in parallel, then saved in the order of the archive.
+     * Invalid profiles and profiles with the same contents as a saved or earlier one are skipped.
+     */
+    @WorkerThread
     private void importProfiles(Uri dataUri) {
-        try (InputStream inputStream =
-                     getContentResolver().openInputStream(dataUri)) {
-            ZipInputStream zipInputStream = new ZipInputStream(inputStream);
+        ExecutorService decoders = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        ArrayList<Future<ImportedProfile>> decoded = new ArrayList<>();
+        try (InputStream inputStream = getContentResolver().openInputStream(dataUri);
+             ZipInputStream zipInputStream = new ZipInputStream(new BufferedInputStream(inputStream))) {
             ZipEntry zipEntry;
             while ((zipEntry = zipInputStream.getNextEntry()) != null) {
                 String profileName = zipEntry.getName();
-                Set<String> stringSet = new HashSet<>();
-                BufferedReader reader = new BufferedReader(
-                        new InputStreamReader(zipInputStream));
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    stringSet.add(line);
-                }
-                new KeymapProfiles(this).sharedPref
-                        .edit()
-                        .putStringSet(profileName, stringSet)
-                        .apply();
+                byte[] bytes = readEntry(zipInputStream);
                 zipInputStream.closeEntry();
+                decoded.add(decoders.submit(() -> decodeProfile(profileName, bytes)));
             }
-            zipInputStream.close();
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            decoders.shutdownNow();
+            Log.e(TAG, e.getMessage(), e);
+            showResult(getString(R.string.import_failed));
+            return;
         }
-        // Refresh RecyclerView
-        binding.profiles.setAdapter(new ProfilesViewAdapter(this, false));
+
+        KeymapProfiles keymapProfiles = new KeymapProfiles(this);
+        // Contents of saved profiles are hashed while the entries are decoded
+        Future<Set<String>> savedHashes = decoders.submit(() -> {
+            Set<String> hashes = new HashSet<>();
+            for (String profileName : keymapProfiles.getProfileNames())
+                hashes.add(KeymapProfiles.contentHash(keymapProfiles.getProfileLines(profileName)));
+            return hashes;
+        });
+
+        int imported = 0, duplicates = 0, invalid = 0;
+        try {
+            Set<String> hashes;
+            try {
+                hashes = savedHashes.get();
+            } catch (ExecutionException e) {
+                // Duplicates of saved profiles are imported again
+                Log.e(TAG, e.getMessage(), e);
+                hashes = new HashSet<>();
+            }
+            for (Future<ImportedProfile> future : decoded) {
+                ImportedProfile profile;
+                try {
+                    profile = future.get();
+                } catch (ExecutionException e) {
+                    // One entry which failed to decode does not stop the others
+                    Log.e(TAG, "skipped profile: " + e.getMessage(), e);
+                    invalid++;
+                    continue;
+                }
+                if (profile.error != null) {
+                    Log.e(TAG, "skipped profile " + profile.name + ": " + profile.error);
+                    invalid++;
+                } else if (!hashes.add(profile.hash)) {
+                    duplicates++;
+                } else {
+                    keymapProfiles.saveProfile(profile.name, profile.lines);
+                    imported++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.e(TAG, e.getMessage(), e);
+            Thread.currentThread().interrupt();
+        } finally {
+            decoders.shutdown();
+        }
+        showResult(getString(R.string.imported_profiles, imported, duplicates, invalid));
+    }
+
+    private static byte[] readEntry(ZipInputStream zipInputStream) throws IOException {
+        ByteArrayOutputStream entry = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = zipInputStream.read(buffer)) > 0) entry.write(buffer, 0, n);
+        return entry.toByteArray();
+    }
+
+    private static ImportedProfile decodeProfile(String profileName, byte[] bytes) throws IOException {
+        ImportedProfile profile = new ImportedProfile(profileName);
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.isBlank()) profile.lines.add(line);
+        }
+        // Any other name is saved, profile files are named with the encoded profile name
+        if (profileName.isEmpty()) profile.error = "invalid name";
+        else profile.error = KeymapProfiles.validate(profile.lines);
+        if (profile.error == null) profile.hash = KeymapProfiles.contentHash(profile.lines);
+        return profile;
+    }
+
+    private void showResult(String message) {
+        runOnUiThread(() -> {
+            if (isDestroyed()) return;
+            Toast.makeText(this, message, Toast.LENGTH_SHORT).show();
+            // Refresh RecyclerView
+            binding.profiles.setAdapter(new ProfilesViewAdapter(this, false));
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        executor.shutdown();
     }
 
     class ProfilesViewAdapter extends RecyclerView.Adapter<ProfilesViewAdapter.ViewHolder> {
@@ -216,7 +325,7 @@ public class ImportExportActivity extends AppCompatActivity {
         private class RecyclerData {
             public RecyclerData(KeymapProfile profile, Context context, String name) {
                 this.name = name;
-                this.description = new KeymapProfiles(context).sharedPref.getStringSet(name, new HashSet<>()).toString();
+                this.description = new KeymapProfiles(context).getProfileLines(name).toString();
                 try {
                     this.icon = context.getPackageManager().getApplicationIcon(profile.packageName);
                 } catch (PackageManager.NameNotFoundException e) {
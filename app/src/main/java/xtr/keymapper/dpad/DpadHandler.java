@@ -1,10 +1,10 @@
 package xtr.keymapper.dpad;
 
+import static xtr.keymapper.InputEventCodes.getKeyCode;
 import static xtr.keymapper.server.InputService.DOWN;
 import static xtr.keymapper.server.InputService.MOVE;
 import static xtr.keymapper.server.InputService.UP;
 
-import android.os.Handler;
 import android.os.SystemClock;
 
 import xtr.keymapper.server.IInputInterface;
@@ -18,11 +18,10 @@ public class DpadHandler {
     private final DpadEvent tapUp, tapDown;
 
     private boolean KEY_UP, KEY_DOWN, KEY_LEFT, KEY_RIGHT;
-    private final String KEY_UP_CODE, KEY_DOWN_CODE, KEY_LEFT_CODE, KEY_RIGHT_CODE;
+    private final int KEY_UP_CODE, KEY_DOWN_CODE, KEY_LEFT_CODE, KEY_RIGHT_CODE;
 
     private IInputInterface input;
     private final int pointerId;
-    private final Handler mHandler;
     private final int delayMillis;
     private long lastEvent;
 
@@ -37,9 +36,8 @@ public class DpadHandler {
         }
     }
 
-    public DpadHandler(Dpad dpad, int pointerId, Handler handler, int delayMillis){
+    public DpadHandler(Dpad dpad, int pointerId, int delayMillis){
         this.pointerId = pointerId;
-        this.mHandler = handler;
         this.delayMillis = delayMillis;
 
         float radius = dpad.radius;
@@ -59,17 +57,24 @@ public class DpadHandler {
         tapUp = new DpadEvent(xOfCenter, yOfCenter, UP);
         tapDown = new DpadEvent(xOfCenter, yOfCenter, DOWN);
 
-        KEY_UP_CODE = dpad.keycodes.Up;
-        KEY_DOWN_CODE = dpad.keycodes.Down;
-        KEY_LEFT_CODE = dpad.keycodes.Left;
-        KEY_RIGHT_CODE = dpad.keycodes.Right;
+        KEY_UP_CODE = getKeyCode(dpad.keycodes.Up);
+        KEY_DOWN_CODE = getKeyCode(dpad.keycodes.Down);
+        KEY_LEFT_CODE = getKeyCode(dpad.keycodes.Left);
+        KEY_RIGHT_CODE = getKeyCode(dpad.keycodes.Right);
+    }
+
+    /**
+     * @return evdev key codes of up, down, left and right keys
+     */
+    public int[] getKeyCodes() {
+        return new int[]{KEY_UP_CODE, KEY_DOWN_CODE, KEY_LEFT_CODE, KEY_RIGHT_CODE};
     }
 
     public void setInterface(IInputInterface input){
         this.input = input;
     }
 
-    public void handleEvent(String key, int action) {
+    public void handleEvent(int key, int action) {
         if (action == DOWN) {
             sendEventDown(key);
         } else {
@@ -80,16 +85,13 @@ public class DpadHandler {
     private void sendDpadEvent(DpadEvent event) {
         long now = SystemClock.uptimeMillis();
 
-        Runnable sendEvent = () -> {
-            input.injectEvent(event.x, event.y, event.action, pointerId);
-        };
-        if ( (now - lastEvent) >= delayMillis ) mHandler.postDelayed(sendEvent, delayMillis);
-        else mHandler.postDelayed(sendEvent, delayMillis + delayMillis);
+        long delay = (now - lastEvent) >= delayMillis ? delayMillis : delayMillis + delayMillis;
+        input.injectEventDelayed(event.x, event.y, event.action, pointerId, delay);
         lastEvent = now;
     }
     
-    private void sendEventDown(String key) {
-        if (key.equals(KEY_UP_CODE)) {
+    private void sendEventDown(int key) {
+        if (key == KEY_UP_CODE) {
             KEY_UP = true;
             if (!KEY_DOWN && !KEY_LEFT && !KEY_RIGHT) {
                 sendDpadEvent(tapDown); // Send pointer down event only if no other keys are pressed
@@ -102,7 +104,7 @@ public class DpadHandler {
             else
                 sendDpadEvent(moveUp); // If left or right keys are not pressed then move dpad straight up
         }
-        else if (key.equals(KEY_DOWN_CODE)) {
+        else if (key == KEY_DOWN_CODE) {
             KEY_DOWN = true;
             if (!KEY_LEFT && !KEY_RIGHT && !KEY_UP)
                 sendDpadEvent(tapDown);
@@ -111,7 +113,7 @@ public class DpadHandler {
             else if (KEY_RIGHT) sendDpadEvent(moveDownRight);
             else sendDpadEvent(moveDown);
 
-        } else if (key.equals(KEY_LEFT_CODE)) {
+        } else if (key == KEY_LEFT_CODE) {
             KEY_LEFT = true;
             if (!KEY_DOWN && !KEY_RIGHT && !KEY_UP)
                 sendDpadEvent(tapDown);
@@ -120,7 +122,7 @@ public class DpadHandler {
             else if (KEY_DOWN) sendDpadEvent(moveDownLeft);
             else sendDpadEvent(moveLeft);
 
-        } else if (key.equals(KEY_RIGHT_CODE)) {
+        } else if (key == KEY_RIGHT_CODE) {
             KEY_RIGHT = true;
             if (!KEY_DOWN && !KEY_LEFT && !KEY_UP)
                 sendDpadEvent(tapDown);
@@ -131,8 +133,8 @@ public class DpadHandler {
         }
     }
 
-    private void sendEventUp(String key) {
-        if (key.equals(KEY_UP_CODE)) {
+    private void sendEventUp(int key) {
+        if (key == KEY_UP_CODE) {
             KEY_UP = false;
             if (!KEY_DOWN && !KEY_LEFT && !KEY_RIGHT)
                 sendDpadEvent(tapUp);
@@ -140,7 +142,7 @@ public class DpadHandler {
             if (KEY_LEFT) sendDpadEvent(moveLeft);
             else if (KEY_RIGHT) sendDpadEvent(moveRight);
 
-        } else if (key.equals(KEY_DOWN_CODE)) {
+        } else if (key == KEY_DOWN_CODE) {
             KEY_DOWN = false;
             if (!KEY_LEFT && !KEY_RIGHT && !KEY_UP)
                 sendDpadEvent(tapUp);
@@ -148,7 +150,7 @@ public class DpadHandler {
             if (KEY_LEFT) sendDpadEvent(moveLeft);
             else if (KEY_RIGHT) sendDpadEvent(moveRight);
 
-        } else if (key.equals(KEY_LEFT_CODE)) {
+        } else if (key == KEY_LEFT_CODE) {
             KEY_LEFT = false;
             if (!KEY_DOWN && !KEY_RIGHT && !KEY_UP)
                 sendDpadEvent(tapUp);
@@ -156,7 +158,7 @@ public class DpadHandler {
             if (KEY_UP) sendDpadEvent(moveUp);
             else if (KEY_DOWN) sendDpadEvent(moveDown);
 
-        } else if (key.equals(KEY_RIGHT_CODE)) {
+        } else if (key == KEY_RIGHT_CODE) {
             KEY_RIGHT = false;
             if (!KEY_DOWN && !KEY_LEFT && !KEY_UP)
                 sendDpadEvent(tapUp);
@@ -15,6 +15,7 @@ import androidx.core.view.WindowInsetsControllerCompat;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 
 import xtr.keymapper.IRemoteService;
+import xtr.keymapper.OnKeyEventListener;
 import xtr.keymapper.R;
 import xtr.keymapper.activity.MainActivity;
 import xtr.keymapper.keymap.KeymapConfig;
@@ -57,7 +58,7 @@ public class EditorActivity extends Activity implements EditorCallback {
         if (getEvent())
             // Can receive key events from remote service
             try {
-                mService.registerOnKeyEventListener(editor);
+                mService.registerOnKeyEventListener(editor, OnKeyEventListener.FILTER_KEYS, null);
                 mService.pauseMouse();
             } catch (RemoteException e) {
                 Log.e("editorActivity", e.getMessage(), e);
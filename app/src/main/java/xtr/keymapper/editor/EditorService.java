@@ -9,6 +9,7 @@ import android.util.Log;
 
 import androidx.appcompat.view.ContextThemeWrapper;
 
+import xtr.keymapper.OnKeyEventListener;
 import xtr.keymapper.R;
  import xtr.keymapper.keymap.KeymapConfig;
 import xtr.keymapper.server.RemoteServiceHelper;
@@ -55,7 +56,7 @@ public class EditorService extends Service {
             RemoteServiceHelper.getInstance(EditorService.this, remoteService -> {
                 try {
                     if (editor != null) {
-                        remoteService.registerOnKeyEventListener(editor);
+                        remoteService.registerOnKeyEventListener(editor, OnKeyEventListener.FILTER_KEYS, null);
                         remoteService.pauseMouse();
                     }
                 } catch (RemoteException e) {
@@ -24,8 +24,10 @@ import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import xtr.keymapper.InputEventCodes;
 import xtr.keymapper.OnKeyEventListener;
@@ -42,9 +44,12 @@ import xtr.keymapper.floatingkeys.MovableFrameLayout;
 import xtr.keymapper.keymap.KeymapConfig;
 import xtr.keymapper.keymap.KeymapProfile;
 import xtr.keymapper.keymap.KeymapProfileKey;
+import xtr.keymapper.keymap.KeymapProfileMacro;
 import xtr.keymapper.keymap.KeymapProfiles;
+import xtr.keymapper.macro.MacroSamples;
 import xtr.keymapper.macro.MacroStatus;
 import xtr.keymapper.macro.MacroView;
+import xtr.keymapper.macro.Macros;
 import xtr.keymapper.mouse.MouseAimConfig;
 import xtr.keymapper.server.RemoteServiceHelper;
 import xtr.keymapper.swipekey.SwipeKey;
@@ -59,6 +64,9 @@ public class EditorUI extends OnKeyEventListener.Stub {
     private final Map<FrameLayout, MovableFloatingActionKey> floatingKeysMap = new HashMap<>();
     private final Map<FrameLayout, MovableFloatingActionKey> swipeKeyViewMap = new HashMap<>();
     private final List<SwipeKeyView> swipeKeyList = new ArrayList<>();
+    private final List<KeymapProfileMacro> macroList = new ArrayList<>();
+    // Macros recorded since the editor was opened, not in the saved profile yet
+    private final Set<String> recordedMacroIds = new HashSet<>();
     private MovableFloatingActionKey leftClick, rightClick;
 
     private MovableFrameLayout crosshair;
@@ -145,22 +153,26 @@ public class EditorUI extends OnKeyEventListener.Stub {
     }
 
     /**
-     * For key events received from getevent running in remote process
-     * @param event A line of output from getevent -ql
+     * For key events received from the remote process, only keys are sent
+     * @param events Lines of output from getevent -ql, in the order they happened
      */
     @Override
-    public void onKeyEvent(String event) {
-        // line: /dev/input/event3 EV_KEY KEY_X DOWN
-        String[] input_event = event.split("\\s+");
-        String code = input_event[2];
-
-        // Ignore non key events
-        if(!input_event[1].equals("EV_KEY") || !code.contains("KEY_")) return;
+    public void onKeyEvents(String[] events) {
+        // The last key pressed in the batch, keys released or repeated after it are skipped
+        String key = null;
+        for (String event : events) {
+            // line: /dev/input/event3 EV_KEY KEY_X DOWN
+            String[] input_event = event.split("\\s+");
+            if (input_event.length >= 4 && input_event[2].startsWith("KEY_") && input_event[3].equals("DOWN"))
+                key = input_event[2].substring(4);
+        }
+        if (key == null) return;
+        final String pressedKey = key;
 
         // Incoming calls are not guaranteed to be executed on the main thread
         mHandler.post(() -> {
             if (keyInFocus != null)
-                keyInFocus.setText(input_event[2].substring(4));
+                keyInFocus.setText(pressedKey);
         });
     }
 
@@ -221,9 +233,10 @@ public class EditorUI extends OnKeyEventListener.Stub {
             mainView.setFocusable(true);
         }
         MacroStatus macroStatus = new MacroStatus(context, settingsFragment.binding.catalog);
-        MacroView macroView = new MacroView(context, (macroView1, savedState) -> {
+        MacroView macroView = new MacroView(context, (macroView1, samples, keyCode) -> {
             // Stop counting time in stopwatch
             macroStatus.stop();
+            saveMacro(samples, keyCode);
 
             // Remove the macro view with visualization
             keysContainerView.removeView(macroView1);
@@ -243,6 +256,29 @@ public class EditorUI extends OnKeyEventListener.Stub {
         mainView.setOnKeyListener((v, keyCode, event) -> macroView.onKey(event));
     }
 
+    /**
+     * Saves the recorded macro and binds it to the key which finished recording, replacing the macro of that key.
+     * A replaced macro which was recorded in this editor is deleted right away,
+     * one from the saved profile when the profile is saved, see KeymapProfiles.saveProfile
+     */
+    private void saveMacro(MacroSamples samples, int keyCode) {
+        if (samples.size() == 0) return;
+        // KEYCODE_X to KEY_X
+        String code = KeyEvent.keyCodeToString(keyCode).replace("KEYCODE_", "KEY_");
+        // Nothing is saved for a key which can not be mapped
+        if (InputEventCodes.getKeyCode(code) == -1) return;
+        Macros macros = new Macros(context);
+        String id = macros.addMacro(samples);
+        if (id == null) return;
+        macroList.removeIf(macro -> {
+            if (!macro.code.equals(code)) return false;
+            if (recordedMacroIds.remove(macro.id)) macros.removeMacro(macro.id);
+            return true;
+        });
+        recordedMacroIds.add(id);
+        macroList.add(new KeymapProfileMacro(new String[]{KeymapProfileMacro.TAG, code, id}));
+    }
+
     public void hideView() {
         saveKeymap();
         settingsFragment.onDestroyView();
@@ -275,6 +311,8 @@ public class EditorUI extends OnKeyEventListener.Stub {
 
         if (profile.dpadUdlr != null) addArrowKeysDpad(profile.dpadUdlr.getX(), profile.dpadUdlr.getY());
 
+        macroList.addAll(profile.macros);
+
         if (profile.mouseAimConfig != null) addCrosshair(profile.mouseAimConfig.xCenter, profile.mouseAimConfig.yCenter);
         if (profile.rightClick != null) addRightClick(profile.rightClick.x, profile.rightClick.y);
     }
@@ -316,10 +354,12 @@ public class EditorUI extends OnKeyEventListener.Stub {
                 .map(SwipeKey::new)
                 .map(SwipeKey::getData)
                 .forEach(linesToWrite::add);
+        macroList.forEach(macro -> linesToWrite.add(macro.getData()));
 
         // Save Config
         KeymapProfiles profiles = new KeymapProfiles(context);
         profiles.saveProfile(profileName, linesToWrite, profile.packageName, !profile.disabled);
+        recordedMacroIds.clear();
 
         // Reload keymap if service running
     }
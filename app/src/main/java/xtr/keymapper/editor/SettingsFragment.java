@@ -32,6 +32,7 @@ public class SettingsFragment {
     protected KeymapEditorLayoutBinding binding;
     private Map<String, Integer> pointerModeMap;
     private Map<String, Integer> touchpadInputModeMap;
+    private Map<String, Integer> threadPriorityMap;
     private final Context context;
     private OnCardItemSelectedListener onCardItemSelectedListener;
     private final int startMode;
@@ -83,6 +84,7 @@ public class SettingsFragment {
         binding.autoProfileSwitch.setChecked(keymapConfig.disableAutoProfiling);
         binding.useShizuku.setChecked(keymapConfig.useShizuku);
         binding.editorOverlay.setChecked(keymapConfig.editorOverlay);
+        binding.uinputTouchscreen.setChecked(keymapConfig.uinputTouchscreen);
 
         loadKeyboardShortcuts();
         binding.launchEditor.setOnKeyListener(this::onKey);
@@ -94,6 +96,7 @@ public class SettingsFragment {
 
         mouseAimActions();
         loadTouchpadInputSettings();
+        loadThreadPolicySettings();
 
         int[] pointerModeCodes = {KeymapConfig.POINTER_COMBINED, KeymapConfig.POINTER_OVERLAY, KeymapConfig.POINTER_SYSTEM};
         String[] pointerModeNames = context.getResources().getStringArray(R.array.pointer_modes);
@@ -186,6 +189,22 @@ public class SettingsFragment {
         binding.touchpadInputMode.setSimpleItems(touchpadInputModeNames);
     }
 
+    private void loadThreadPolicySettings() {
+        final int[] threadPriorityCodes = {KeymapConfig.THREAD_PRIORITY_DEFAULT, KeymapConfig.THREAD_PRIORITY_URGENT, KeymapConfig.THREAD_PRIORITY_REALTIME};
+        String[] threadPriorityNames = context.getResources().getStringArray(R.array.thread_priorities);
+        threadPriorityMap = IntStream.range(0, threadPriorityCodes.length)
+                .boxed()
+                .collect(Collectors.toMap(k -> threadPriorityNames[k], v -> threadPriorityCodes[v]));
+
+        for (Map.Entry<String, Integer> entry : threadPriorityMap.entrySet()) {
+            if (entry.getValue().equals(keymapConfig.inputThreadPriority)) {
+                binding.inputThreadPriority.setText(entry.getKey());
+            }
+        }
+        binding.inputThreadPriority.setSimpleItems(threadPriorityNames);
+        binding.inputCpuAffinity.setText(keymapConfig.inputCpuAffinity);
+    }
+
     public boolean onKey(View view, int keyCode, KeyEvent event) {
         String key = String.valueOf(event.getDisplayLabel());
         if ( key.matches("[a-zA-Z0-9]+" )) ((EditText) view).setText(key);
@@ -220,6 +239,8 @@ public class SettingsFragment {
         keymapConfig.mouseAimToggle = binding.mouseAimAction.getText().toString().equals(context.getResources().getString(R.string.toggle));
         keymapConfig.touchpadInputMode = touchpadInputModeMap.get(binding.touchpadInputMode.getText().toString());
         keymapConfig.pointerMode = pointerModeMap.get(binding.pointerMode.getText().toString());
+        keymapConfig.inputThreadPriority = threadPriorityMap.get(binding.inputThreadPriority.getText().toString());
+        keymapConfig.inputCpuAffinity = String.valueOf(binding.inputCpuAffinity.getText()).trim();
 
         keymapConfig.mouseSensitivity = binding.sliderMouse.getValue();
         keymapConfig.scrollSpeed = binding.sliderScrollSpeed.getValue();
@@ -233,6 +254,7 @@ public class SettingsFragment {
         keymapConfig.disableAutoProfiling = binding.autoProfileSwitch.isChecked();
         keymapConfig.useShizuku = binding.useShizuku.isChecked();
         keymapConfig.editorOverlay = binding.editorOverlay.isChecked();
+        keymapConfig.uinputTouchscreen = binding.uinputTouchscreen.isChecked();
 
         keymapConfig.applySharedPrefs();
         binding = null;
@@ -14,6 +14,10 @@ public class KeymapConfig implements Parcelable {
     public Float mouseSensitivity = 1f, scrollSpeed = 1f;
     public boolean ctrlMouseWheelZoom, ctrlDragMouseGesture, rightClickMouseAim, keyGraveMouseAim;
     public boolean disableAutoProfiling, useShizuku, editorOverlay;
+    public boolean uinputTouchscreen;
+    // Input threads are only raised above the default priority or pinned to cpus if chosen in the settings
+    public int inputThreadPriority = THREAD_PRIORITY_DEFAULT;
+    public String inputCpuAffinity = "";
 
     public int pauseResumeShortcutKey = 25; // KEY_P
     public int launchEditorShortcutKey = 14; // KEY_E
@@ -31,10 +35,53 @@ public class KeymapConfig implements Parcelable {
     public static final int POINTER_OVERLAY = 7;
     public static final int POINTER_COMBINED = 8;
 
+    public static final int THREAD_PRIORITY_DEFAULT = 9;
+    public static final int THREAD_PRIORITY_URGENT = 10;
+    public static final int THREAD_PRIORITY_REALTIME = 11;
+
     public int mouseAimShortcutKey;
     public boolean mouseAimToggle;
     public int touchpadInputMode = TOUCHPAD_DISABLED;
 
+    private static KeymapConfig cachedConfig;
+    // SharedPreferences only keeps a weak reference to listeners
+    private static SharedPreferences.OnSharedPreferenceChangeListener cacheInvalidator;
+
+    /**
+     * Settings are only loaded again after they have changed.
+     * Returns a copy of the cached settings, which the caller may modify
+     */
+    public static synchronized KeymapConfig getCached(Context context) {
+        if (cachedConfig == null) {
+            Context appContext = context.getApplicationContext();
+            if (cacheInvalidator == null) {
+                // Registered before the settings are read, so that a change made while reading them is not missed
+                cacheInvalidator = (sharedPreferences, key) -> invalidateCache();
+                appContext.getSharedPreferences("settings", MODE_PRIVATE)
+                        .registerOnSharedPreferenceChangeListener(cacheInvalidator);
+            }
+            cachedConfig = new KeymapConfig(appContext);
+        }
+        return cachedConfig.copy();
+    }
+
+    private KeymapConfig copy() {
+        Parcel parcel = Parcel.obtain();
+        try {
+            writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            KeymapConfig copy = new KeymapConfig(parcel);
+            copy.sharedPref = sharedPref;
+            return copy;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static synchronized void invalidateCache() {
+        cachedConfig = null;
+    }
+
     public KeymapConfig(Context context) {
         if (context != null) {
             sharedPref = context.getSharedPreferences("settings", MODE_PRIVATE);
@@ -76,6 +123,9 @@ public class KeymapConfig implements Parcelable {
         useShizuku = in.readByte() != 0;
         editorOverlay = in.readByte() != 0;
         pointerMode = in.readInt();
+        uinputTouchscreen = in.readByte() != 0;
+        inputThreadPriority = in.readInt();
+        inputCpuAffinity = in.readString();
     }
 
     public static final Creator<KeymapConfig> CREATOR = new Creator<>() {
@@ -99,6 +149,7 @@ public class KeymapConfig implements Parcelable {
         disableAutoProfiling = sharedPref.getBoolean("disable_auto_profile", true);
         useShizuku = sharedPref.getBoolean("use_shizuku", false);
         editorOverlay = sharedPref.getBoolean("editor_overlay", false);
+        uinputTouchscreen = sharedPref.getBoolean("uinput_touchscreen", false);
 
         launchEditorShortcutKey = sharedPref.getInt("launch_editor_shortcut", launchEditorShortcutKey);
         pauseResumeShortcutKey = sharedPref.getInt("pause_resume_shortcut", pauseResumeShortcutKey);
@@ -116,6 +167,8 @@ public class KeymapConfig implements Parcelable {
 
         touchpadInputMode = sharedPref.getInt("touchpad_input_mode", TOUCHPAD_DISABLED);
         pointerMode = sharedPref.getInt("pointer_mode", POINTER_OVERLAY);
+        inputThreadPriority = sharedPref.getInt("input_thread_priority", THREAD_PRIORITY_DEFAULT);
+        inputCpuAffinity = sharedPref.getString("input_cpu_affinity", "");
     }
 
     public void applySharedPrefs() {
@@ -129,6 +182,7 @@ public class KeymapConfig implements Parcelable {
                 .putBoolean("disable_auto_profile", disableAutoProfiling)
                 .putBoolean("use_shizuku", useShizuku)
                 .putBoolean("editor_overlay", editorOverlay)
+                .putBoolean("uinput_touchscreen", uinputTouchscreen)
                 .putInt("pause_resume_shortcut", pauseResumeShortcutKey)
                 .putInt("launch_editor_shortcut", launchEditorShortcutKey)
                 .putInt("switch_profile_shortcut", switchProfileShortcutKey)
@@ -139,6 +193,8 @@ public class KeymapConfig implements Parcelable {
                 .putInt("touchpad_input_mode", touchpadInputMode)
                 .putInt("swipe_delay_ms", swipeDelayMs)
                 .putInt("pointer_mode", pointerMode)
+                .putInt("input_thread_priority", inputThreadPriority)
+                .putString("input_cpu_affinity", inputCpuAffinity)
                 .apply();
     }
 
@@ -179,5 +235,8 @@ public class KeymapConfig implements Parcelable {
         dest.writeByte((byte) (useShizuku ? 1 : 0));
         dest.writeByte((byte) (editorOverlay ? 1 : 0));
         dest.writeInt(pointerMode);
+        dest.writeByte((byte) (uinputTouchscreen ? 1 : 0));
+        dest.writeInt(inputThreadPriority);
+        dest.writeString(inputCpuAffinity);
     }
 }
@@ -18,6 +18,7 @@ public class KeymapProfile implements Parcelable {
     public MouseAimConfig mouseAimConfig = null;
     public ArrayList<KeymapProfileKey> keys = new ArrayList<>();
     public ArrayList<SwipeKey> swipeKeys = new ArrayList<>();
+    public ArrayList<KeymapProfileMacro> macros = new ArrayList<>();
     public KeymapProfileKey rightClick;
     public boolean disabled = false;
     public Dpad dpadUdlr;
@@ -32,6 +33,7 @@ public class KeymapProfile implements Parcelable {
         mouseAimConfig = in.readParcelable(MouseAimConfig.class.getClassLoader());
         keys = in.createTypedArrayList(KeymapProfileKey.CREATOR);
         swipeKeys = in.createTypedArrayList(SwipeKey.CREATOR);
+        macros = in.createTypedArrayList(KeymapProfileMacro.CREATOR);
         rightClick = in.readParcelable(KeymapProfileKey.class.getClassLoader());
         disabled = in.readByte() != 0;
         dpadUdlr = in.readParcelable(Dpad.class.getClassLoader());
@@ -44,6 +46,9 @@ public class KeymapProfile implements Parcelable {
         dest.writeParcelable(mouseAimConfig, flags);
         dest.writeTypedList(keys);
         dest.writeTypedList(swipeKeys);
+        // Same layout as writeTypedList, which does not pass the flags on before API 30
+        dest.writeInt(macros.size());
+        for (KeymapProfileMacro macro : macros) dest.writeTypedObject(macro, flags);
         dest.writeParcelable(rightClick, flags);
         dest.writeByte((byte) (disabled ? 1 : 0));
         dest.writeParcelable(dpadUdlr, flags);
@@ -51,7 +56,9 @@ public class KeymapProfile implements Parcelable {
 
     @Override
     public int describeContents() {
-        return 0;
+        int contents = 0;
+        for (KeymapProfileMacro macro : macros) contents |= macro.describeContents();
+        return contents;
     }
 
     public static final Creator<KeymapProfile> CREATOR = new Creator<>() {
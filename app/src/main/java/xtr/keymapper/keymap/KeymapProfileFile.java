@@ -0,0 +1,230 @@
+package xtr.keymapper.keymap;
+
+import android.util.AtomicFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.zip.CRC32;
+
+import xtr.keymapper.BuildConfig;
+import xtr.keymapper.dpad.Dpad;
+import xtr.keymapper.mouse.MouseAimConfig;
+import xtr.keymapper.swipekey.SwipeKey;
+
+/**
+ * Binary file of a single keymap profile.
+ * <pre>
+ * int magic, short version, int payload length, int crc32 of payload
+ * payload: utf package name, boolean enabled, short record count, records
+ * </pre>
+ * Keys and the right click are stored as floats so they are not parsed again when loading,
+ * the few other lines (dpads, swipe keys, mouse aim) are kept as text.
+ */
+final class KeymapProfileFile {
+    private static final int MAGIC = 0x58544d50; // "XTMP"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 2 + 4 + 4;
+
+    private static final byte RECORD_KEY = 0;
+    private static final byte RECORD_MOUSE_RIGHT = 1;
+    private static final byte RECORD_LINE = 2;
+
+    private KeymapProfileFile() {
+    }
+
+    /**
+     * @param lines lines of the text format, APPLICATION and ENABLED lines are stored in the header
+     * @return package name of the profile
+     */
+    static String write(File file, Collection<String> lines) throws IOException {
+        String packageName = BuildConfig.APPLICATION_ID;
+        for (String line : lines) {
+            String[] data = line.split("\\s+");
+            if (data[0].equals("APPLICATION") && data.length > 1) packageName = data[1];
+        }
+        byte[] bytes = encodePayload(lines);
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                .putInt(MAGIC)
+                .putShort(VERSION)
+                .putInt(bytes.length)
+                .putInt((int) crc.getValue());
+
+        AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream stream = atomicFile.startWrite();
+        try {
+            stream.write(header.array());
+            stream.write(bytes);
+            atomicFile.finishWrite(stream);
+        } catch (IOException e) {
+            atomicFile.failWrite(stream);
+            throw e;
+        }
+        return packageName;
+    }
+
+    /**
+     * Payload of the file without the header, the same lines in the same order always give the same bytes
+     */
+    static byte[] encodePayload(Collection<String> lines) throws IOException {
+        String packageName = null;
+        boolean enabled = false;
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(records);
+        int recordCount = 0;
+        for (String line : lines) {
+            String[] data = line.split("\\s+");
+            switch (data[0]) {
+                case "APPLICATION":
+                    if (data.length > 1) packageName = data[1];
+                    continue;
+                case "ENABLED":
+                    enabled = true;
+                    continue;
+                case KeymapProfiles.MOUSE_RIGHT:
+                    if (data.length == 3 && writeFloats(out, RECORD_MOUSE_RIGHT, null, data, 2)) {
+                        recordCount++;
+                        continue;
+                    }
+                    break;
+                case Dpad.TAG:
+                case Dpad.UDLR:
+                case MouseAimConfig.TAG:
+                case SwipeKey.TAG:
+                case KeymapProfileMacro.TAG:
+                    break;
+                default:
+                    if (data.length == 4 && writeFloats(out, RECORD_KEY, data[0], data, 3)) {
+                        recordCount++;
+                        continue;
+                    }
+                    break;
+            }
+            out.writeByte(RECORD_LINE);
+            out.writeUTF(line);
+            recordCount++;
+        }
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(records.size() + 64);
+        DataOutputStream payloadOut = new DataOutputStream(payload);
+        payloadOut.writeUTF(packageName != null ? packageName : "");
+        payloadOut.writeBoolean(enabled);
+        payloadOut.writeShort(recordCount);
+        records.writeTo(payloadOut);
+        payloadOut.flush();
+        return payload.toByteArray();
+    }
+
+    /**
+     * Writes the record only if all values are numbers, otherwise the line is kept as text
+     */
+    private static boolean writeFloats(DataOutputStream out, byte type, String code, String[] data, int count) throws IOException {
+        float[] values = new float[count];
+        try {
+            for (int i = 0; i < count; i++) values[i] = Float.parseFloat(data[i + 1]);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        out.writeByte(type);
+        if (code != null) out.writeUTF(code);
+        for (float value : values) out.writeFloat(value);
+        return true;
+    }
+
+    static KeymapProfile read(File file) throws IOException {
+        DataInputStream in = open(file);
+        KeymapProfile profile = new KeymapProfile();
+        String packageName = in.readUTF();
+        if (!packageName.isEmpty()) profile.packageName = packageName;
+        profile.disabled = !in.readBoolean();
+        int recordCount = in.readUnsignedShort();
+        for (int i = 0; i < recordCount; i++) {
+            byte type = in.readByte();
+            switch (type) {
+                case RECORD_KEY: {
+                    final KeymapProfileKey key = new KeymapProfileKey();
+                    key.code = in.readUTF();
+                    key.x = in.readFloat();
+                    key.y = in.readFloat();
+                    key.offset = in.readFloat();
+                    profile.keys.add(key);
+                    break;
+                }
+                case RECORD_MOUSE_RIGHT:
+                    profile.rightClick = new KeymapProfileKey();
+                    profile.rightClick.x = in.readFloat();
+                    profile.rightClick.y = in.readFloat();
+                    break;
+                case RECORD_LINE:
+                    KeymapProfiles.parseLine(profile, in.readUTF().split("\\s+"));
+                    break;
+                default:
+                    throw new IOException("unknown record " + type + " in " + file);
+            }
+        }
+        return profile;
+    }
+
+    static String readPackageName(File file) throws IOException {
+        String packageName = open(file).readUTF();
+        return packageName.isEmpty() ? BuildConfig.APPLICATION_ID : packageName;
+    }
+
+    /**
+     * @return the profile in the text format, as it was saved
+     */
+    static ArrayList<String> readLines(File file) throws IOException {
+        DataInputStream in = open(file);
+        ArrayList<String> lines = new ArrayList<>();
+        String packageName = in.readUTF();
+        boolean enabled = in.readBoolean();
+        int recordCount = in.readUnsignedShort();
+        for (int i = 0; i < recordCount; i++) {
+            byte type = in.readByte();
+            switch (type) {
+                case RECORD_KEY:
+                    lines.add(in.readUTF() + " " + in.readFloat() + " " + in.readFloat() + " " + in.readFloat());
+                    break;
+                case RECORD_MOUSE_RIGHT:
+                    lines.add(KeymapProfiles.MOUSE_RIGHT + " " + in.readFloat() + " " + in.readFloat());
+                    break;
+                case RECORD_LINE:
+                    lines.add(in.readUTF());
+                    break;
+                default:
+                    throw new IOException("unknown record " + type + " in " + file);
+            }
+        }
+        if (!packageName.isEmpty()) lines.add("APPLICATION " + packageName);
+        if (enabled) lines.add("ENABLED");
+        return lines;
+    }
+
+    /**
+     * Checks the header and returns a stream positioned at the start of the payload
+     */
+    private static DataInputStream open(File file) throws IOException {
+        byte[] bytes = new AtomicFile(file).readFully();
+        if (bytes.length < HEADER_SIZE) throw new IOException("truncated profile " + file);
+        ByteBuffer header = ByteBuffer.wrap(bytes, 0, HEADER_SIZE);
+        if (header.getInt() != MAGIC) throw new IOException("not a profile " + file);
+        short version = header.getShort();
+        if (version != VERSION) throw new IOException("unsupported profile version " + version + " in " + file);
+        int length = header.getInt();
+        if (length != bytes.length - HEADER_SIZE) throw new IOException("truncated profile " + file);
+        CRC32 crc = new CRC32();
+        crc.update(bytes, HEADER_SIZE, length);
+        if (header.getInt() != (int) crc.getValue()) throw new IOException("checksum mismatch in " + file);
+        return new DataInputStream(new ByteArrayInputStream(bytes, HEADER_SIZE, length));
+    }
+}
@@ -0,0 +1,150 @@
+package xtr.keymapper.keymap;
+
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * Names of the profiles of each app, so that finding the profiles of an app does not read every profile.
+ * Kept in memory and written to a file after every change.
+ * The index is built again from the profile files if the file is missing, invalid or does not match the profiles.
+ * <pre>
+ * int magic, short version, int crc32 of the entries, int entry count, entries of utf profile name and utf package name
+ * </pre>
+ */
+final class KeymapProfileIndex {
+    private static final String TAG = "KeymapProfileIndex";
+    private static final int MAGIC = 0x58544d49; // "XTMI"
+    private static final short VERSION = 1;
+
+    private final AtomicFile file;
+    private final Map<String, String> packageByProfile = new HashMap<>();
+    private final Map<String, Set<String>> profilesByPackage = new HashMap<>();
+
+    /**
+     * @param profileNames names of all profiles with a file, to check the index against
+     * @param profileFiles file of each profile, to read the package name when building the index again
+     */
+    KeymapProfileIndex(File file, ArrayList<String> profileNames, Function<String, File> profileFiles) {
+        this.file = new AtomicFile(file);
+        if (!load() || !packageByProfile.keySet().containsAll(profileNames) || packageByProfile.size() != profileNames.size()) {
+            packageByProfile.clear();
+            profilesByPackage.clear();
+            for (String profileName : profileNames) try {
+                add(profileName, KeymapProfileFile.readPackageName(profileFiles.apply(profileName)));
+            } catch (IOException e) {
+                Log.e(TAG, e.getMessage(), e);
+            }
+            save();
+            Log.i(TAG, "built index of " + packageByProfile.size() + " profiles");
+        }
+    }
+
+    private boolean load() {
+        if (!file.getBaseFile().exists()) return false;
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(file.readFully()));
+            if (in.readInt() != MAGIC || in.readShort() != VERSION) return false;
+            int crc = in.readInt();
+            byte[] entries = new byte[in.available()];
+            in.readFully(entries);
+            CRC32 crc32 = new CRC32();
+            crc32.update(entries);
+            if (crc != (int) crc32.getValue()) return false;
+
+            in = new DataInputStream(new ByteArrayInputStream(entries));
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) add(in.readUTF(), in.readUTF());
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, e.getMessage(), e);
+            return false;
+        }
+    }
+
+    private void save() {
+        FileOutputStream stream = null;
+        try {
+            ByteArrayOutputStream entries = new ByteArrayOutputStream();
+            DataOutputStream entriesOut = new DataOutputStream(entries);
+            entriesOut.writeInt(packageByProfile.size());
+            for (Map.Entry<String, String> entry : packageByProfile.entrySet()) {
+                entriesOut.writeUTF(entry.getKey());
+                entriesOut.writeUTF(entry.getValue());
+            }
+            entriesOut.flush();
+            byte[] bytes = entries.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+
+            stream = file.startWrite();
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt((int) crc.getValue());
+            out.write(bytes);
+            out.flush();
+            file.finishWrite(stream);
+        } catch (IOException e) {
+            if (stream != null) file.failWrite(stream);
+            Log.e(TAG, e.getMessage(), e);
+        }
+    }
+
+    private void add(String profileName, String packageName) {
+        remove(profileName);
+        packageByProfile.put(profileName, packageName);
+        profilesByPackage.computeIfAbsent(packageName, k -> new LinkedHashSet<>()).add(profileName);
+    }
+
+    private void remove(String profileName) {
+        String packageName = packageByProfile.remove(profileName);
+        if (packageName == null) return;
+        Set<String> profiles = profilesByPackage.get(packageName);
+        profiles.remove(profileName);
+        if (profiles.isEmpty()) profilesByPackage.remove(packageName);
+    }
+
+    synchronized ArrayList<String> getProfiles(String packageName) {
+        Set<String> profiles = profilesByPackage.get(packageName);
+        return profiles != null ? new ArrayList<>(profiles) : new ArrayList<>();
+    }
+
+    synchronized String getPackageName(String profileName) {
+        return packageByProfile.get(profileName);
+    }
+
+    synchronized void put(String profileName, String packageName) {
+        if (packageName.equals(packageByProfile.get(profileName))) return;
+        add(profileName, packageName);
+        save();
+    }
+
+    synchronized void rename(String profileName, String newProfile) {
+        String packageName = packageByProfile.get(profileName);
+        if (packageName == null) return;
+        remove(profileName);
+        add(newProfile, packageName);
+        save();
+    }
+
+    synchronized void delete(String profileName) {
+        if (!packageByProfile.containsKey(profileName)) return;
+        remove(profileName);
+        save();
+    }
+}
@@ -0,0 +1,177 @@
+package xtr.keymapper.keymap;
+
+import static xtr.keymapper.server.InputService.UP;
+
+import android.os.Parcel;
+import android.os.ParcelFileDescriptor;
+import android.os.Parcelable;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import xtr.keymapper.macro.MacroSamples;
+import xtr.keymapper.macro.Macros;
+
+/**
+ * A recorded macro bound to a key, saved in a profile as a line like MACRO KEY_X macro0.
+ * The touch samples are stored separately, see Macros. They are not written to a parcel:
+ * the file of the macro is sent as a file descriptor instead, and read when the macro is first played.
+ */
+public final class KeymapProfileMacro implements Parcelable {
+    public static final String TAG = "MACRO";
+    /**
+     * Parcelable flag to write the macro without its file descriptor, for a parcel which is sent as bytes.
+     * The file descriptor is then passed by the caller, see setFile
+     */
+    public static final int PARCELABLE_WITHOUT_FILE = 0x10000;
+
+    public String code;
+    public String id;
+    // Saved file of the macro in the app, opened each time the macro is written to a parcel
+    File file;
+    // File received with the parcel, closed once it is read or when the keymap is replaced
+    private ParcelFileDescriptor fd;
+
+    // Touch samples in the order they were recorded, times are from the start of the macro.
+    // Only filled by load, on the thread which plays the macro
+    public float[] xs = new float[0];
+    public float[] ys = new float[0];
+    public int[] actions = new int[0];
+    public int[] timesMillis = new int[0];
+
+    public KeymapProfileMacro(String[] data) {
+        code = data[1];
+        id = data[2];
+    }
+
+    protected KeymapProfileMacro(Parcel in) {
+        code = in.readString();
+        id = in.readString();
+        fd = in.readTypedObject(ParcelFileDescriptor.CREATOR);
+    }
+
+    public String getData() {
+        return TAG + " " + code + " " + id;
+    }
+
+    /**
+     * @param fd file of the macro received separately from the parcel, replaces one received before
+     */
+    public synchronized void setFile(ParcelFileDescriptor fd) {
+        closeFile();
+        this.fd = fd;
+    }
+
+    /**
+     * Reads the samples from the received file, the first time the macro is played.
+     * The file is mapped and decoded once, later calls return right away
+     * @return false if the macro has no samples, or its file was closed before it was played
+     */
+    public synchronized boolean load() {
+        if (fd != null) try {
+            setSamples(Macros.readMacro(fd, id));
+        } catch (IOException e) {
+            Log.e(TAG, e.getMessage(), e);
+        } finally {
+            fd = null;
+        }
+        return size() > 0;
+    }
+
+    /**
+     * Closes the received file of a macro which was never played, when its keymap is replaced or stopped
+     */
+    public synchronized void closeFile() {
+        if (fd != null) try {
+            fd.close();
+        } catch (IOException ignored) {
+        }
+        fd = null;
+    }
+
+    public int size() {
+        return actions.length;
+    }
+
+    /**
+     * @return length of the macro in milliseconds
+     */
+    public int getDuration() {
+        return timesMillis.length > 0 ? timesMillis[timesMillis.length - 1] : 0;
+    }
+
+    /**
+     * Copies the samples of the recorded macro, the pointer is released at the end if it was left down
+     */
+    private void setSamples(MacroSamples samples) {
+        int n = samples.size();
+        boolean down = n > 0 && samples.getAction(n - 1) != UP;
+        int length = down ? n + 1 : n;
+        xs = new float[length];
+        ys = new float[length];
+        actions = new int[length];
+        timesMillis = new int[length];
+        for (int i = 0; i < n; i++) {
+            xs[i] = samples.getX(i);
+            ys[i] = samples.getY(i);
+            actions[i] = samples.getAction(i);
+            timesMillis[i] = (int) samples.getTime(i);
+        }
+        if (down) {
+            xs[n] = xs[n - 1];
+            ys[n] = ys[n - 1];
+            actions[n] = UP;
+            timesMillis[n] = timesMillis[n - 1];
+        }
+    }
+
+    /**
+     * @return the saved file opened for reading, or null if it can not be opened
+     */
+    public ParcelFileDescriptor openFile() {
+        if (file != null) try {
+            return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+        } catch (FileNotFoundException e) {
+            Log.e(TAG, e.getMessage(), e);
+        }
+        return null;
+    }
+
+    public static final Creator<KeymapProfileMacro> CREATOR = new Creator<>() {
+        @Override
+        public KeymapProfileMacro createFromParcel(Parcel in) {
+            return new KeymapProfileMacro(in);
+        }
+
+        @Override
+        public KeymapProfileMacro[] newArray(int size) {
+            return new KeymapProfileMacro[size];
+        }
+    };
+
+    @Override
+    public int describeContents() {
+        return file != null ? CONTENTS_FILE_DESCRIPTOR : 0;
+    }
+
+    @Override
+    public void writeToParcel(@NonNull Parcel dest, int flags) {
+        dest.writeString(code);
+        dest.writeString(id);
+        if ((flags & PARCELABLE_WITHOUT_FILE) != 0) {
+            dest.writeTypedObject(null, 0);
+            return;
+        }
+        // The parcel keeps its own duplicate of the file descriptor
+        ParcelFileDescriptor fd = openFile();
+        dest.writeTypedObject(fd, 0);
+        if (fd != null) try {
+            fd.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -4,83 +4,176 @@ import static android.content.Context.MODE_PRIVATE;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.function.BiConsumer;
+import java.util.WeakHashMap;
 
 import xtr.keymapper.dpad.Dpad;
+import xtr.keymapper.macro.Macros;
 import xtr.keymapper.mouse.MouseAimConfig;
 import xtr.keymapper.swipekey.SwipeKey;
 
+/**
+ * Keymap profiles are stored in one binary file each, see KeymapProfileFile.
+ * A profile is only read from its file when it is requested,
+ * the profiles of an app are found with KeymapProfileIndex.
+ */
 public class KeymapProfiles {
-    public final SharedPreferences sharedPref;
     public static final String MOUSE_RIGHT = "MOUSE_RIGHT";
+    private static final String TAG = "KeymapProfiles";
+    private static final String FILE_SUFFIX = ".profile";
+
+    private static boolean migrated = false;
+    private static KeymapProfileIndex index;
+    // Parsed profiles, removed when a profile is saved, renamed or deleted
+    private static final Map<String, KeymapProfile> profileCache = new HashMap<>();
+    // Held weakly like listeners of SharedPreferences
+    private static final Set<OnProfilesChangedListener> listeners = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final File profilesDir;
+    private final Macros macros;
+
+    public interface OnProfilesChangedListener {
+        void onProfilesChanged();
+    }
 
     public KeymapProfiles(Context context) {
-        sharedPref = context.getSharedPreferences("profiles", MODE_PRIVATE);
+        profilesDir = new File(context.getFilesDir(), "profiles");
+        macros = new Macros(context);
+        synchronized (KeymapProfiles.class) {
+            if (!migrated) {
+                profilesDir.mkdirs();
+                migrateSharedPrefs(context);
+                migrated = true;
+            }
+            if (index == null)
+                index = new KeymapProfileIndex(new File(profilesDir, "packages.index"), getProfileNames(), this::getFile);
+        }
+    }
+
+    /**
+     * Profiles used to be saved as string sets in the "profiles" shared preferences.
+     * See KeymapProfileFormatBenchmark for load and save times of both formats
+     */
+    private void migrateSharedPrefs(Context context) {
+        SharedPreferences sharedPref = context.getSharedPreferences("profiles", MODE_PRIVATE);
+        Map<String, ?> allPrefs = sharedPref.getAll();
+        if (allPrefs.isEmpty()) return;
+        for (Map.Entry<String, ?> entry : allPrefs.entrySet()) {
+            if (entry.getKey() == null || !(entry.getValue() instanceof Set)) continue;
+            try {
+                KeymapProfileFile.write(getFile(entry.getKey()), (Set<String>) entry.getValue());
+            } catch (IOException e) {
+                // Keep the old preferences so that migration is tried again
+                Log.e(TAG, "failed to migrate profile " + entry.getKey(), e);
+                return;
+            }
+        }
+        context.deleteSharedPreferences("profiles");
+        Log.i(TAG, "migrated " + allPrefs.size() + " profiles");
+    }
+
+    private File getFile(String profileName) {
+        return new File(profilesDir, Uri.encode(profileName) + FILE_SUFFIX);
+    }
+
+    public static void registerOnProfilesChangedListener(OnProfilesChangedListener l) {
+        listeners.add(l);
+    }
+
+    public static void unregisterOnProfilesChangedListener(OnProfilesChangedListener l) {
+        listeners.remove(l);
+    }
+
+    private static void notifyProfilesChanged() {
+        mainHandler.post(() -> {
+            OnProfilesChangedListener[] current;
+            synchronized (listeners) {
+                current = listeners.toArray(new OnProfilesChangedListener[0]);
+            }
+            for (OnProfilesChangedListener l : current) l.onProfilesChanged();
+        });
+    }
+
+    /**
+     * @return names of all saved profiles, without reading them
+     */
+    public ArrayList<String> getProfileNames() {
+        ArrayList<String> names = new ArrayList<>();
+        String[] files = profilesDir.list();
+        if (files != null) for (String file : files)
+            if (file.endsWith(FILE_SUFFIX))
+                names.add(Uri.decode(file.substring(0, file.length() - FILE_SUFFIX.length())));
+        return names;
     }
 
     public Map<String, KeymapProfile> getAllProfiles(){
         Map<String, KeymapProfile> allProfiles = new HashMap<>();
-        sharedPref.getAll().forEach((BiConsumer<String, Object>) (key, lines) ->
-                allProfiles.put(key, getProfile((Set<String>) lines)));
+        for (String profileName : getProfileNames())
+            allProfiles.put(profileName, getProfile(profileName));
         return allProfiles;
     }
 
+    /**
+     * @return names of the profiles for an app, from the index without reading any profile
+     */
+    public ArrayList<String> getProfileNamesForApp(String packageName) {
+        return index.getProfiles(packageName);
+    }
+
     public Map<String, KeymapProfile> getAllProfilesForApp(String packageName){
         Map<String, KeymapProfile> appProfiles = new HashMap<>();
-        sharedPref.getAll().forEach((BiConsumer<String, Object>) (key, lines) -> {
-            KeymapProfile profile = getProfile((Set<String>) lines);
-            if(profile.packageName.equals(packageName))
-                appProfiles.put(key, profile);
-        });
+        for (String profileName : getProfileNamesForApp(packageName))
+            appProfiles.put(profileName, getProfile(profileName));
         return appProfiles;
     }
 
     public void renameProfile(String profileName, String newProfile) {
-        Set<String> stringSet = sharedPref.getStringSet(profileName, null);
-        deleteProfile(profileName);
-        sharedPref.edit()
-                .putStringSet(newProfile, stringSet)
-                .apply();
+        if (getFile(profileName).renameTo(getFile(newProfile))) {
+            index.rename(profileName, newProfile);
+            invalidateCache(profileName);
+            invalidateCache(newProfile);
+            notifyProfilesChanged();
+        }
     }
 
     public void setProfilePackageName(String profileName, String packageName) {
-        Set<String> stringSet = sharedPref.getStringSet(profileName, null);
-        saveProfile(profileName, new ArrayList<>(stringSet), packageName, stringSet.contains("ENABLED"));
+        ArrayList<String> lines = getProfileLines(profileName);
+        saveProfile(profileName, lines, packageName, lines.contains("ENABLED"));
     }
 
     public boolean isProfileEnabled(String profileName) {
-        Set<String> stringSet = sharedPref.getStringSet(profileName, null);
-        return stringSet.contains("ENABLED");
+        return !getProfile(profileName).disabled;
     }
 
     public boolean profileExistsWithPackageName(String packageName){
-        return !getAllProfilesForApp(packageName).isEmpty();
+        return !getProfileNamesForApp(packageName).isEmpty();
     }
 
     public void setProfileEnabled(String profileName, boolean enabled) {
-        Set<String> stringSet = sharedPref.getStringSet(profileName, null);
-        String packageName = null;
-        for (String line : stringSet) {
-            String[] data = line.split("\\s+");
-            if (data[0].equals("APPLICATION"))
-                packageName = data[1];
-        }
+        String packageName = index.getPackageName(profileName);
         if (packageName == null) return;
 
-        for (var entry : sharedPref.getAll().entrySet()) {
-            // disable or enable all profiles for app for consistency
-            KeymapProfile profile = getProfile((Set<String>) entry.getValue());
-            if(profile.packageName.equals(packageName)) {
-                Set<String> lines = sharedPref.getStringSet(entry.getKey(), null);
-                saveProfile(entry.getKey(), new ArrayList<>(lines), packageName, enabled);
-            }
-        }
+        // disable or enable all profiles for app for consistency
+        getProfileNamesForApp(packageName).forEach(name ->
+                saveProfile(name, getProfileLines(name), packageName, enabled));
     }
 
     public void saveProfile(String profileName, ArrayList<String> lines, String packageName, boolean enabled) {
@@ -88,77 +181,223 @@ public class KeymapProfiles {
         lines.add("APPLICATION " + packageName);
         lines.removeIf(line -> line.contains("ENABLED"));
         if (enabled) lines.add("ENABLED");
-        Set<String> stringSet = new HashSet<>(lines);
-        sharedPref.edit()
-                .putStringSet(profileName, stringSet)
-                .apply();
+        saveProfile(profileName, lines);
+    }
+
+    /**
+     * Saves a profile in the text format, like an imported one
+     * @param lines including the APPLICATION and ENABLED lines
+     */
+    public void saveProfile(String profileName, Collection<String> lines) {
+        Set<String> previousMacros = getMacroIds(profileName);
+        try {
+            // Duplicate lines are saved once
+            String packageName = KeymapProfileFile.write(getFile(profileName), new LinkedHashSet<>(lines));
+            index.put(profileName, packageName);
+        } catch (IOException e) {
+            Log.e(TAG, e.getMessage(), e);
+        }
+        invalidateCache(profileName);
+        removeUnusedMacros(previousMacros);
+        notifyProfilesChanged();
     }
 
     public void deleteProfile(String profileName){
-        sharedPref.edit().remove(profileName).apply();
+        if (profileName == null) return;
+        Set<String> previousMacros = getMacroIds(profileName);
+        if (getFile(profileName).delete()) {
+            index.delete(profileName);
+            invalidateCache(profileName);
+            removeUnusedMacros(previousMacros);
+            notifyProfilesChanged();
+        }
+    }
+
+    /**
+     * @return identifiers of the macros saved in a profile, without checking that their files exist
+     */
+    private Set<String> getMacroIds(String profileName) {
+        Set<String> ids = new HashSet<>();
+        File file = getFile(profileName);
+        if (file.exists()) try {
+            for (KeymapProfileMacro macro : KeymapProfileFile.read(file).macros) ids.add(macro.id);
+        } catch (IOException e) {
+            Log.e(TAG, e.getMessage(), e);
+        }
+        return ids;
+    }
+
+    /**
+     * Deletes the files of macros which were removed from a profile, unless another profile still has them.
+     * Profiles are only read if a macro was removed
+     */
+    private void removeUnusedMacros(Set<String> ids) {
+        if (ids.isEmpty()) return;
+        for (String profileName : getProfileNames()) {
+            ids.removeAll(getMacroIds(profileName));
+            if (ids.isEmpty()) return;
+        }
+        for (String id : ids) macros.removeMacro(id);
     }
 
     public KeymapProfile getProfile(String profileName) {
-        Set<String> stream = sharedPref.getStringSet(profileName, null);
-        return getProfile(stream);
+        File file = getFile(profileName);
+        if (file.exists()) try {
+            KeymapProfile profile = KeymapProfileFile.read(file);
+            loadMacros(profile);
+            return profile;
+        } catch (IOException e) {
+            Log.e(TAG, e.getMessage(), e);
+        }
+        KeymapProfile profile = new KeymapProfile();
+        profile.disabled = true;
+        return profile;
+    }
+
+    /**
+     * Finds the saved file of each macro of a profile, macros which were deleted are removed.
+     * The samples are not read here, the file is sent to the server which reads it when the macro is played
+     */
+    private void loadMacros(KeymapProfile profile) {
+        profile.macros.removeIf(macro -> {
+            macro.file = macros.getMacroFile(macro.id);
+            return macro.file == null;
+        });
+    }
+
+    /**
+     * Same as getProfile, a profile is only read again after it has been changed.
+     * The returned instance is shared and must not be modified, use getProfile for editing.
+     */
+    public KeymapProfile getCachedProfile(String profileName) {
+        synchronized (profileCache) {
+            KeymapProfile profile = profileCache.get(profileName);
+            if (profile == null) {
+                profile = getProfile(profileName);
+                profileCache.put(profileName, profile);
+            }
+            return profile;
+        }
+    }
+
+    private static void invalidateCache(String profileName) {
+        synchronized (profileCache) {
+            profileCache.remove(profileName);
+        }
+    }
+
+    /**
+     * @return the profile in the text format used for export, empty if it does not exist
+     */
+    public ArrayList<String> getProfileLines(String profileName) {
+        File file = getFile(profileName);
+        if (file.exists()) try {
+            return KeymapProfileFile.readLines(file);
+        } catch (IOException e) {
+            Log.e(TAG, e.getMessage(), e);
+        }
+        return new ArrayList<>();
     }
 
     public KeymapProfile getProfile(Set<String> lines) {
         KeymapProfile profile = new KeymapProfile();
         profile.disabled = true;
-        if (lines != null) lines.forEach(line -> {
-
-            String[] data = line.split("\\s+"); // Split a String like KEY_G 760.86346 426.18607
-            switch (data[0]){
-                case Dpad.TAG:
-                    if (data.length >= 12)
-                        for (int i = 0; i < profile.dpadArray.length; i++)
-                            if (profile.dpadArray[i] == null) {
-                                profile.dpadArray[i] = new Dpad(data);
-                                break;
-                            }
-                    break;
-
-                case Dpad.UDLR:
-                    if (data.length >= 12)
-                        profile.dpadUdlr = new Dpad(data);
-                    break;
-
-                case MouseAimConfig.TAG:
-                    profile.mouseAimConfig = new MouseAimConfig().parse(data);
-                    break;
-
-                case MOUSE_RIGHT:
-                    profile.rightClick = new KeymapProfileKey();
-                    profile.rightClick.x = Float.parseFloat(data[1]);
-                    profile.rightClick.y = Float.parseFloat(data[2]);
-                    break;
-
-                case "APPLICATION":
-                    profile.packageName = data[1];
-                    break;
-
-                case "ENABLED":
-                    profile.disabled = false;
-                    break;
-
-                case SwipeKey.TAG:
-                    if (data.length > 6) profile.swipeKeys.add(new SwipeKey(data));
-                    break;
-
-                default: {
-                    if (data.length > 3) {
-                        final KeymapProfileKey key = new KeymapProfileKey();
-                        key.code = data[0];
-                        key.x = Float.parseFloat(data[1]);
-                        key.y = Float.parseFloat(data[2]);
-                        key.offset = Float.parseFloat(data[3]);
-                        profile.keys.add(key);
-                    }
-                    break;
+        if (lines != null) lines.forEach(line ->
+                parseLine(profile, line.split("\\s+"))); // Split a String like KEY_G 760.86346 426.18607
+        return profile;
+    }
+
+    /**
+     * Checks a profile in the text format, like one being imported
+     * @return description of the first problem found, or null if the profile is valid
+     */
+    public static String validate(Collection<String> lines) {
+        boolean hasApplication = false;
+        KeymapProfile profile = new KeymapProfile();
+        for (String line : lines) {
+            String[] data = line.split("\\s+");
+            if (data[0].equals("APPLICATION")) {
+                if (data.length != 2) return "invalid line: " + line;
+                hasApplication = true;
+            }
+            try {
+                parseLine(profile, data);
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                return "invalid line: " + line;
+            }
+        }
+        if (!hasApplication) return "no APPLICATION line";
+        return null;
+    }
+
+    /**
+     * Hash of the contents of a profile in the text format, to find profiles which are the same.
+     * Independent of the order of lines and of how key positions are written
+     */
+    public static String contentHash(Collection<String> lines) {
+        ArrayList<String> sorted = new ArrayList<>(new LinkedHashSet<>(lines));
+        Collections.sort(sorted);
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return new BigInteger(1, digest.digest(KeymapProfileFile.encodePayload(sorted))).toString(16);
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static void parseLine(KeymapProfile profile, String[] data) {
+        switch (data[0]){
+            case Dpad.TAG:
+                if (data.length >= 12)
+                    for (int i = 0; i < profile.dpadArray.length; i++)
+                        if (profile.dpadArray[i] == null) {
+                            profile.dpadArray[i] = new Dpad(data);
+                            break;
+                        }
+                break;
+
+            case Dpad.UDLR:
+                if (data.length >= 12)
+                    profile.dpadUdlr = new Dpad(data);
+                break;
+
+            case MouseAimConfig.TAG:
+                profile.mouseAimConfig = new MouseAimConfig().parse(data);
+                break;
+
+            case MOUSE_RIGHT:
+                profile.rightClick = new KeymapProfileKey();
+                profile.rightClick.x = Float.parseFloat(data[1]);
+                profile.rightClick.y = Float.parseFloat(data[2]);
+                break;
+
+            case "APPLICATION":
+                profile.packageName = data[1];
+                break;
+
+            case "ENABLED":
+                profile.disabled = false;
+                break;
+
+            case SwipeKey.TAG:
+                if (data.length > 6) profile.swipeKeys.add(new SwipeKey(data));
+                break;
+
+            case KeymapProfileMacro.TAG:
+                if (data.length > 2) profile.macros.add(new KeymapProfileMacro(data));
+                break;
+
+            default: {
+                if (data.length > 3) {
+                    final KeymapProfileKey key = new KeymapProfileKey();
+                    key.code = data[0];
+                    key.x = Float.parseFloat(data[1]);
+                    key.y = Float.parseFloat(data[2]);
+                    key.offset = Float.parseFloat(data[3]);
+                    profile.keys.add(key);
                 }
+                break;
             }
-        });
-        return profile;
+        }
     }
 }
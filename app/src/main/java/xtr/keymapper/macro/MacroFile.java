@@ -0,0 +1,140 @@
+package xtr.keymapper.macro;
+
+import android.util.AtomicFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Binary file of a single macro.
+ * <pre>
+ * int magic, short version, int sample count, int payload length, int crc32 of payload
+ * payload: for each sample varint (time delta in ms << 2 | action), zigzag varint x delta, zigzag varint y delta
+ * </pre>
+ * Coordinates are stored in 1/16 of a pixel and each value is the difference from the previous sample,
+ * so a sample usually takes 3 to 5 bytes. The file is read through a memory mapping without copying it.
+ */
+final class MacroFile {
+    private static final int MAGIC = 0x58544d43; // "XTMC"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 2 + 4 + 4 + 4;
+    private static final float SUBPIXELS = 16f;
+
+    private MacroFile() {
+    }
+
+    static void write(File file, MacroSamples samples) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(samples.size * 5);
+        long lastTime = samples.size > 0 ? samples.times[0] : 0;
+        int lastX = 0, lastY = 0;
+        for (int i = 0; i < samples.size; i++) {
+            // Times never go backwards in a recording, clamped in case they do
+            long timeDelta = Math.max(samples.times[i] - lastTime, 0);
+            writeVarint(payload, timeDelta << 2 | (samples.actions[i] & 3));
+            int x = Math.round(samples.xs[i] * SUBPIXELS);
+            int y = Math.round(samples.ys[i] * SUBPIXELS);
+            writeVarint(payload, zigzag(x - lastX));
+            writeVarint(payload, zigzag(y - lastY));
+            lastTime += timeDelta;
+            lastX = x;
+            lastY = y;
+        }
+        byte[] bytes = payload.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                .putInt(MAGIC)
+                .putShort(VERSION)
+                .putInt(samples.size)
+                .putInt(bytes.length)
+                .putInt((int) crc.getValue());
+
+        AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream stream = atomicFile.startWrite();
+        try {
+            stream.write(header.array());
+            stream.write(bytes);
+            atomicFile.finishWrite(stream);
+        } catch (IOException e) {
+            atomicFile.failWrite(stream);
+            throw e;
+        }
+    }
+
+    /**
+     * Reads a macro from an open file, like one received as a file descriptor
+     * @param file name of the file for error messages
+     * @return samples with times in milliseconds from the first sample
+     */
+    static MacroSamples read(FileInputStream stream, String file) throws IOException {
+        try (FileChannel channel = stream.getChannel()) {
+            long length = channel.size();
+            if (length < HEADER_SIZE) throw new IOException("truncated macro " + file);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (buffer.getInt() != MAGIC) throw new IOException("not a macro " + file);
+            short version = buffer.getShort();
+            if (version != VERSION) throw new IOException("unsupported macro version " + version + " in " + file);
+            int count = buffer.getInt();
+            int payloadLength = buffer.getInt();
+            int crc = buffer.getInt();
+            if (count < 0 || payloadLength != length - HEADER_SIZE) throw new IOException("truncated macro " + file);
+            // The count is not covered by the checksum, each sample takes at least 3 bytes of the payload
+            if (count > payloadLength / 3) throw new IOException("invalid sample count " + count + " in " + file);
+
+            CRC32 crc32 = new CRC32();
+            crc32.update(buffer.duplicate());
+            if (crc != (int) crc32.getValue()) throw new IOException("checksum mismatch in " + file);
+
+            MacroSamples samples = new MacroSamples(count);
+            long time = 0;
+            int x = 0, y = 0;
+            try {
+                for (int i = 0; i < count; i++) {
+                    long timeAndAction = readVarint(buffer);
+                    time += timeAndAction >>> 2;
+                    x += unzigzag(readVarint(buffer));
+                    y += unzigzag(readVarint(buffer));
+                    samples.add(x / SUBPIXELS, y / SUBPIXELS, time, (int) (timeAndAction & 3));
+                }
+            } catch (RuntimeException e) {
+                // Buffer underflow, or a varint which does not end
+                throw new IOException("invalid macro " + file, e);
+            }
+            return samples;
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IllegalStateException("varint too long");
+    }
+
+    private static long zigzag(int value) {
+        return ((value << 1) ^ (value >> 31)) & 0xffffffffL;
+    }
+
+    private static int unzigzag(long value) {
+        return (int) (value >>> 1) ^ -(int) (value & 1);
+    }
+}
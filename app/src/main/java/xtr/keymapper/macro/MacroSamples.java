@@ -0,0 +1,67 @@
+package xtr.keymapper.macro;
+
+import java.util.Arrays;
+
+/**
+ * Touch samples of a macro, kept in primitive arrays which grow by doubling
+ * so that a long recording does not allocate for every sample.
+ */
+public final class MacroSamples {
+    private static final int INITIAL_CAPACITY = 256;
+
+    float[] xs;
+    float[] ys;
+    long[] times; // Event time in milliseconds
+    byte[] actions; // InputService.DOWN, MOVE or UP
+    int size = 0;
+
+    public MacroSamples() {
+        this(INITIAL_CAPACITY);
+    }
+
+    MacroSamples(int capacity) {
+        capacity = Math.max(capacity, 1);
+        xs = new float[capacity];
+        ys = new float[capacity];
+        times = new long[capacity];
+        actions = new byte[capacity];
+    }
+
+    void add(float x, float y, long time, int action) {
+        if (size == xs.length) {
+            int capacity = size * 2;
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            times = Arrays.copyOf(times, capacity);
+            actions = Arrays.copyOf(actions, capacity);
+        }
+        xs[size] = x;
+        ys[size] = y;
+        times[size] = time;
+        actions[size] = (byte) action;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public float getX(int i) {
+        return xs[i];
+    }
+
+    public float getY(int i) {
+        return ys[i];
+    }
+
+    /**
+     * @return milliseconds from the first sample
+     */
+    public long getTime(int i) {
+        return times[i] - times[0];
+    }
+
+    public int getAction(int i) {
+        return actions[i];
+    }
+}
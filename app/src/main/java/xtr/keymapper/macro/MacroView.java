@@ -1,11 +1,11 @@
 package xtr.keymapper.macro;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.BlurMaskFilter;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.Path;
 import android.view.InputDevice;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
@@ -13,17 +13,21 @@ import android.view.View;
 
 import androidx.annotation.NonNull;
 
+import xtr.keymapper.server.InputService;
+
 /**
- * Custom View for visualization
+ * Custom View for visualization.
+ * Every sample of a touch event is recorded, including the historical ones batched into a move.
+ * New segments are drawn once into a bitmap, so a redraw costs the same however long the recording is.
  */
 public class MacroView extends View {
 
-    private static final char DELIMITER = ',';
     private final Paint paintOuter;
     private final Paint paintInner;
-    private final Path path;
-    private final StringBuilder stringBuilder = new StringBuilder();
+    private MacroSamples samples = new MacroSamples();
     private final OnFinishListener onFinishListener;
+    private Bitmap bitmap;
+    private Canvas bitmapCanvas;
 
     public MacroView(Context context, OnFinishListener onFinishListener) {
         super(context);
@@ -33,6 +37,8 @@ public class MacroView extends View {
         paintOuter.setAntiAlias(true);
         paintOuter.setColor(Color.GREEN);
         paintOuter.setStyle(Paint.Style.STROKE);
+        // Segments are drawn one at a time, round ends join them smoothly
+        paintOuter.setStrokeCap(Paint.Cap.ROUND);
 
         paintOuter.setStrokeWidth(5f);
         paintOuter.setMaskFilter(new BlurMaskFilter(10, BlurMaskFilter.Blur.NORMAL));
@@ -41,22 +47,33 @@ public class MacroView extends View {
         paintInner.setStrokeWidth(2f);
         paintInner.setColor(Color.CYAN);
         paintInner.setMaskFilter(null);
+    }
 
-        // Set up path
-        path = new Path();
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (bitmap != null) bitmap.recycle();
+        bitmap = null;
+        bitmapCanvas = null;
+        if (w > 0 && h > 0) {
+            bitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+            bitmapCanvas = new Canvas(bitmap);
+            // Draw what was recorded before the size changed
+            for (int i = 0; i < samples.size; i++) drawSegment(i);
+        }
     }
 
     @Override
     protected void onDraw(@NonNull Canvas canvas) {
         super.onDraw(canvas);
-        canvas.drawPath(path, paintOuter);  // Draw the path
-        canvas.drawPath(path, paintInner);  // Draw the path
+        if (bitmap != null) canvas.drawBitmap(bitmap, 0, 0, null);
     }
 
     public boolean onKey(KeyEvent event) {
         if (event.getSource() == InputDevice.SOURCE_KEYBOARD) {
+            MacroSamples recorded = samples;
             clearCanvas();
-            onFinishListener.onFinishMacro(this, stringBuilder.toString());
+            onFinishListener.onFinishMacro(this, recorded, event.getKeyCode());
             return true;
         }
         return false;
@@ -64,46 +81,70 @@ public class MacroView extends View {
 
     @Override
     public boolean onTouchEvent(MotionEvent event) {
-        float x = event.getX();
-        float y = event.getY();
-        long elapsedTimeMillis = event.getEventTime() - event.getDownTime();
-
+        int action;
         switch (event.getAction()) {
             case MotionEvent.ACTION_DOWN:
-                path.moveTo(x, y);  // Start new path
+                action = InputService.DOWN;
+                break;
             case MotionEvent.ACTION_MOVE:
-                path.lineTo(x, y);  // Draw line to current touch point
+                action = InputService.MOVE;
+                // Samples batched since the previous event, oldest first
+                for (int h = 0; h < event.getHistorySize(); h++)
+                    addSample(event.getHistoricalX(h), event.getHistoricalY(h), event.getHistoricalEventTime(h), action);
                 break;
             case MotionEvent.ACTION_UP:
-                path.moveTo(x, y);  // Start new path
+                action = InputService.UP;
+                break;
             default:
                 return false;
         }
-        logEvent(x, y, elapsedTimeMillis);
+        addSample(event.getX(), event.getY(), event.getEventTime(), action);
 
         invalidate();  // Request redraw
         return true;
     }
 
-    private void logEvent(float x, float y, long elapsedTimeMillis) {
-        stringBuilder.append(x).append(DELIMITER)
-                .append(y).append(DELIMITER)
-                .append(elapsedTimeMillis).append(DELIMITER)
-                .append("\n");
+    private void addSample(float x, float y, long eventTime, int action) {
+        samples.add(x, y, eventTime, action);
+        drawSegment(samples.size - 1);
     }
 
+    /**
+     * Draws the line from the previous sample to sample i, or a point where a stroke starts
+     */
+    private void drawSegment(int i) {
+        if (bitmapCanvas == null) return;
+        float x1 = samples.xs[i], y1 = samples.ys[i];
+        if (i == 0 || samples.actions[i] == InputService.DOWN) {
+            bitmapCanvas.drawPoint(x1, y1, paintOuter);
+            bitmapCanvas.drawPoint(x1, y1, paintInner);
+            return;
+        }
+        float x0 = samples.xs[i - 1], y0 = samples.ys[i - 1];
+        bitmapCanvas.drawLine(x0, y0, x1, y1, paintOuter);
+        bitmapCanvas.drawLine(x0, y0, x1, y1, paintInner);
+    }
 
     private void clearCanvas() {
-        path.reset();
+        samples = new MacroSamples();
+        if (bitmap != null) bitmap.eraseColor(Color.TRANSPARENT);
         invalidate();  // Request redraw
     }
 
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (bitmap != null) bitmap.recycle();
+        bitmap = null;
+        bitmapCanvas = null;
+    }
 
     public interface OnFinishListener {
         /**
          * @param macroView View with the macro visuals
-         * @param savedState Log with events recorded in macro
+         * @param samples Touch samples recorded in macro
+         * @param keyCode Key pressed to finish recording, the macro is bound to it
          */
-        void onFinishMacro(MacroView macroView, String savedState);
+        void onFinishMacro(MacroView macroView, MacroSamples samples, int keyCode);
     }
 }
@@ -0,0 +1,160 @@
+package xtr.keymapper.macro;
+
+import static android.content.Context.MODE_PRIVATE;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+
+import xtr.keymapper.server.InputService;
+
+/**
+ * Recorded macros are stored in one binary file each, see MacroFile.
+ * A macro is only read from its file when it is first played, by the server, see KeymapProfileMacro.
+ */
+public class Macros {
+    private static final String TAG = "Macros";
+    private static final String FILE_SUFFIX = ".macro";
+
+    private static boolean migrated = false;
+
+    private final File macrosDir;
+
+    public Macros(Context context) {
+        macrosDir = new File(context.getFilesDir(), "macros");
+        synchronized (Macros.class) {
+            if (!migrated) {
+                macrosDir.mkdirs();
+                migrateSharedPrefs(context);
+                migrated = true;
+            }
+        }
+    }
+
+    /**
+     * Macros used to be saved as text in the "macros" shared preferences
+     */
+    private void migrateSharedPrefs(Context context) {
+        SharedPreferences sharedPref = context.getSharedPreferences("macros", MODE_PRIVATE);
+        Map<String, ?> allPrefs = sharedPref.getAll();
+        if (allPrefs.isEmpty()) return;
+        for (Map.Entry<String, ?> entry : allPrefs.entrySet()) {
+            if (entry.getKey() == null || !(entry.getValue() instanceof String)) continue;
+            try {
+                MacroFile.write(getFile(entry.getKey()), parseSavedState((String) entry.getValue()));
+            } catch (IOException | NumberFormatException e) {
+                // Keep the old preferences so that migration is tried again
+                Log.e(TAG, "failed to migrate macro " + entry.getKey(), e);
+                return;
+            }
+        }
+        context.deleteSharedPreferences("macros");
+        Log.i(TAG, "migrated " + allPrefs.size() + " macros");
+    }
+
+    /**
+     * Reads the text saved by older versions, one line of x,y,elapsedMs[,action] for each touch event.
+     * Without the action column the time is from the start of each stroke, those strokes are played one after another.
+     */
+    private static MacroSamples parseSavedState(String savedState) {
+        MacroSamples samples = new MacroSamples();
+        long strokeStart = 0;
+        boolean down = false;
+        for (String line : savedState.split("\n")) {
+            String[] data = line.split(",");
+            if (data.length < 3) continue;
+            float x = Float.parseFloat(data[0]);
+            float y = Float.parseFloat(data[1]);
+            long time = Long.parseLong(data[2]);
+            int action;
+            if (data.length > 3 && !data[3].isEmpty()) {
+                action = Integer.parseInt(data[3]);
+            } else {
+                // A new stroke starts at time 0
+                action = time == 0 || !down ? InputService.DOWN : InputService.MOVE;
+                if (action == InputService.DOWN) {
+                    int last = samples.size - 1;
+                    if (down) samples.add(samples.xs[last], samples.ys[last], samples.times[last], InputService.UP);
+                    strokeStart = samples.size > 0 ? samples.times[samples.size - 1] : 0;
+                }
+                time += strokeStart;
+            }
+            if (action != InputService.DOWN && action != InputService.MOVE && action != InputService.UP) continue;
+            samples.add(x, y, time, action);
+            down = action != InputService.UP;
+        }
+        return samples;
+    }
+
+    private File getFile(String id) {
+        return new File(macrosDir, Uri.encode(id) + FILE_SUFFIX);
+    }
+
+    /**
+     * Saves a new macro with the next available identifier string like "macro0", "macro1", etc.
+     * @return Macro identifier string, or null if it could not be saved
+     */
+    public String addMacro(MacroSamples samples) {
+        int index = 0;
+        String id;
+        // Find the next available macro id
+        do {
+            id = "macro" + index;
+            index++;
+        } while (getFile(id).exists());
+
+        try {
+            MacroFile.write(getFile(id), samples);
+            return id;
+        } catch (IOException e) {
+            Log.e(TAG, e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * @param id Macro identifier string
+     * @return file the macro is saved in, or null if it does not exist
+     */
+    public File getMacroFile(String id) {
+        File file = getFile(id);
+        return file.exists() ? file : null;
+    }
+
+    /**
+     * Reads a macro from a file descriptor of its file, as received by the server which can not open the file itself.
+     * The file descriptor is closed.
+     * @param id Macro identifier string, for error messages
+     */
+    public static MacroSamples readMacro(ParcelFileDescriptor fd, String id) throws IOException {
+        try (ParcelFileDescriptor.AutoCloseInputStream stream = new ParcelFileDescriptor.AutoCloseInputStream(fd)) {
+            return MacroFile.read(stream, id);
+        }
+    }
+
+    /**
+     * @return identifier strings of all saved macros, without reading them
+     */
+    public ArrayList<String> getMacroIds() {
+        ArrayList<String> ids = new ArrayList<>();
+        String[] files = macrosDir.list();
+        if (files != null) for (String file : files)
+            if (file.endsWith(FILE_SUFFIX))
+                ids.add(Uri.decode(file.substring(0, file.length() - FILE_SUFFIX.length())));
+        return ids;
+    }
+
+    /**
+     * @param id Macro identifier string
+     */
+    public void removeMacro(String id) {
+        getFile(id).delete();
+    }
+}
@@ -12,8 +12,6 @@ import static xtr.keymapper.server.InputService.MOVE;
 import static xtr.keymapper.server.InputService.UP;
 
 import android.graphics.RectF;
-import android.os.Handler;
-import android.os.Looper;
 
 import xtr.keymapper.server.IInputInterface;
 import xtr.keymapper.touchpointer.PointerId;
@@ -26,13 +24,11 @@ public class MouseAimHandler {
     private IInputInterface service;
     private final int pointerIdMouse = PointerId.pid1.id;
     private final int pointerIdAim = PointerId.pid2.id;
-    private final Handler mHandler;
 
     public MouseAimHandler(MouseAimConfig config){
         currentX = config.xCenter;
         currentY = config.yCenter;
         this.config = config;
-        mHandler = new Handler(Looper.getMainLooper());
     }
 
     public void setInterface(IInputInterface input) {
@@ -57,27 +53,21 @@ public class MouseAimHandler {
 
     public void resetPointer() {
         service.injectEvent(currentX, currentY, UP, pointerIdAim);
-        mHandler.postDelayed(() -> {
-                    currentY = config.yCenter;
-                    currentX = config.xCenter;
-                    service.injectEvent(currentX, currentY, DOWN, pointerIdAim);
-                },
-                service.getKeymapConfig().swipeDelayMs);
+        currentY = config.yCenter;
+        currentX = config.xCenter;
+        service.injectEventDelayed(currentX, currentY, DOWN, pointerIdAim, service.getKeymapConfig().swipeDelayMs);
     }
 
-    public void handleEvent(int code, int value, OnButtonClickListener listener) {
+    /**
+     * @return false for the buttons which are left to the caller, like the one which ends mouse aim
+     */
+    public boolean handleEvent(int code, int value) {
         switch (code) {
             case REL_X:
-                currentX += calculateScaledX(value);
-                if (config.limitedBounds && (currentX > area.right || currentX < area.left))
-                    resetPointer();
-                service.injectEvent(currentX, currentY, MOVE, pointerIdAim);
+                handleMotion(value, 0);
                 break;
             case REL_Y:
-                currentY += calculateScaledY(value);
-                if (config.limitedBounds && (currentY > area.bottom || currentY < area.top))
-                    resetPointer();
-                service.injectEvent(currentX, currentY, MOVE, pointerIdAim);
+                handleMotion(0, value);
                 break;
 
             case BTN_MOUSE:
@@ -88,9 +78,24 @@ public class MouseAimHandler {
             case BTN_MIDDLE:
             case BTN_EXTRA:
             case BTN_RIGHT:
-                listener.onButtonClick(code, value);
-                break;
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Moves the aim pointer by relative motion of both axes with a single injection
+     */
+    public void handleMotion(int dx, int dy) {
+        currentX += calculateScaledX(dx);
+        currentY += calculateScaledY(dy);
+        if (config.limitedBounds && (currentX > area.right || currentX < area.left
+                || currentY > area.bottom || currentY < area.top)) {
+            // Pointer goes down again at the center after the delay
+            resetPointer();
+            return;
         }
+        service.injectEvent(currentX, currentY, MOVE, pointerIdAim);
     }
 
     public float calculateScaledX(int value) {
@@ -124,8 +129,4 @@ public class MouseAimHandler {
     public void stop() {
         service.injectEvent(currentX, currentY, UP, pointerIdAim);
     }
-
-    public interface OnButtonClickListener {
-        void onButtonClick(int code, int value);
-    }
 }
@@ -33,9 +33,7 @@ public class ProfileSelector {
 
     public static void select(Context context, OnProfileSelectedListener listener, String packageName) {
         context.setTheme(R.style.Theme_XtMapper);
-        ArrayList<String> allProfiles = new ArrayList<>(new KeymapProfiles(context)
-                .getAllProfilesForApp(packageName)
-                .keySet());
+        ArrayList<String> allProfiles = new KeymapProfiles(context).getProfileNamesForApp(packageName);
 
         if (allProfiles.size() == 1) {
             listener.onProfileSelected(allProfiles.get(0));
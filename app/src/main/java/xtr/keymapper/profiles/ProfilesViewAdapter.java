@@ -1,7 +1,6 @@
 package xtr.keymapper.profiles;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.graphics.drawable.Drawable;
 import android.view.LayoutInflater;
@@ -16,7 +15,6 @@ import com.google.android.material.card.MaterialCardView;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 
 import xtr.keymapper.R;
 import xtr.keymapper.databinding.ProfileRowItemBinding;
@@ -26,7 +24,7 @@ import xtr.keymapper.keymap.KeymapProfiles;
 /**
  * Provide views to RecyclerView.
  */
-public class ProfilesViewAdapter extends RecyclerView.Adapter<ProfilesViewAdapter.ViewHolder> implements SharedPreferences.OnSharedPreferenceChangeListener {
+public class ProfilesViewAdapter extends RecyclerView.Adapter<ProfilesViewAdapter.ViewHolder> implements KeymapProfiles.OnProfilesChangedListener {
 
     private final ArrayList<RecyclerData> recyclerDataArrayList = new ArrayList<>();
     private final OnItemRemovedListener callback;
@@ -65,8 +63,8 @@ public class ProfilesViewAdapter extends RecyclerView.Adapter<ProfilesViewAdapte
         profileSelectedCallback = cb;
         if (context == null) return;
         KeymapProfiles keymapProfiles = new KeymapProfiles(context);
-        // Reset the adapter and load data again after sharedPreferences change
-        keymapProfiles.sharedPref.registerOnSharedPreferenceChangeListener(this);
+        // Reset the adapter and load data again after profiles change
+        KeymapProfiles.registerOnProfilesChangedListener(this);
 
         // Add items to adapter for all saved keymap profiles
         new KeymapProfiles(context).getAllProfiles().forEach((profileName, profile) -> {
@@ -77,8 +75,8 @@ public class ProfilesViewAdapter extends RecyclerView.Adapter<ProfilesViewAdapte
     }
 
     @Override
-    public void onSharedPreferenceChanged(SharedPreferences sharedPref, String key) {
-        sharedPref.unregisterOnSharedPreferenceChangeListener(this);
+    public void onProfilesChanged() {
+        KeymapProfiles.unregisterOnProfilesChangedListener(this);
         callback.resetAdapter();
     }
 
@@ -167,7 +165,7 @@ public class ProfilesViewAdapter extends RecyclerView.Adapter<ProfilesViewAdapte
      */
     private static class RecyclerData {
         public RecyclerData(String packageName, Context context, String profileName) {
-            description = new KeymapProfiles(context).sharedPref.getStringSet(profileName, new HashSet<>()).toString();
+            description = new KeymapProfiles(context).getProfileLines(profileName).toString();
             this.profileName = profileName;
             try {
                 icon = context.getPackageManager().getApplicationIcon(packageName);
@@ -4,6 +4,7 @@ import static android.content.Context.ACTIVITY_SERVICE;
 
 import android.app.ActivityManager;
 import android.app.IActivityManager;
+import android.app.IProcessObserver;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.RemoteException;
@@ -14,11 +15,46 @@ import java.util.List;
 
 import xtr.keymapper.ActivityObserver;
 
+/**
+ * Sends the package of the foreground activity to the client app whenever it changes.
+ * Activity manager notifies a process observer when a process gets or loses foreground activities,
+ * the top task is then checked once the callbacks of a transition have settled.
+ */
 public class ActivityObserverService implements Runnable {
     public ActivityObserver mCallback;
     private final IActivityManager am = IActivityManager.Stub.asInterface(ServiceManager.getService(ACTIVITY_SERVICE));
     private HandlerThread mHandlerThread;
     private Handler mHandler;
+    private String lastPackageName;
+    private boolean polling = false;
+
+    // An app switch reports both the old and the new process, check the top task once after both
+    private static final long DEBOUNCE_MS = 16;
+    // Only if the process observer could not be registered
+    private static final long POLL_INTERVAL_MS = 5000;
+
+    private final IProcessObserver.Stub mProcessObserver = new IProcessObserver.Stub() {
+        @Override
+        public void onForegroundActivitiesChanged(int pid, int uid, boolean foregroundActivities) {
+            Handler handler = mHandler;
+            if (handler != null) {
+                handler.removeCallbacks(ActivityObserverService.this);
+                handler.postDelayed(ActivityObserverService.this, DEBOUNCE_MS);
+            }
+        }
+
+        @Override
+        public void onForegroundServicesChanged(int pid, int uid, int serviceTypes) {
+        }
+
+        @Override
+        public void onProcessDied(int pid, int uid) {
+        }
+
+        @Override
+        public void onProcessStarted(int pid, int processUid, int packageUid, String packageName, String processName) {
+        }
+    };
 
     public ActivityObserverService(ActivityObserver observer) {
         this.mCallback = observer;
@@ -26,7 +62,13 @@ public class ActivityObserverService implements Runnable {
         mHandlerThread = new HandlerThread("activity_observer");
         mHandlerThread.start();
         mHandler = new Handler(mHandlerThread.getLooper());
-        // Send activity to client app every 5 seconds
+        try {
+            am.registerProcessObserver(mProcessObserver);
+        } catch (RemoteException | SecurityException e) {
+            Log.e(RemoteService.TAG, "process observer unavailable, polling foreground activity", e);
+            polling = true;
+        }
+        // Send current activity to client app
         mHandler.post(this);
     }
 
@@ -36,8 +78,10 @@ public class ActivityObserverService implements Runnable {
             List<ActivityManager.RunningTaskInfo> taskInfo = am.getTasks(1);
             String packageName = taskInfo.get(0).topActivity.getPackageName();
             if (mCallback != null) {
-                mCallback.onForegroundActivitiesChanged(packageName);
-                mHandler.postDelayed(this, 5000);
+                if (!packageName.equals(lastPackageName))
+                    mCallback.onForegroundActivitiesChanged(packageName);
+                lastPackageName = packageName;
+                if (polling) mHandler.postDelayed(this, POLL_INTERVAL_MS);
             } else {
                 stop();
             }
@@ -48,6 +92,12 @@ public class ActivityObserverService implements Runnable {
 
     public void stop() {
         mCallback = null;
+        if (!polling) try {
+            am.unregisterProcessObserver(mProcessObserver);
+        } catch (RemoteException | SecurityException e) {
+            Log.e(RemoteService.TAG, e.getMessage(), e);
+        }
+        polling = false;
         mHandler = null;
         if (mHandlerThread != null)
             mHandlerThread.quit();
@@ -3,21 +3,25 @@ package xtr.keymapper.server;
 import xtr.keymapper.IRemoteServiceCallback;
 import xtr.keymapper.keymap.KeymapConfig;
 import xtr.keymapper.keymap.KeymapProfile;
+import xtr.keymapper.keymap.KeymapProfileMacro;
 import xtr.keymapper.touchpointer.KeyEventHandler;
+import xtr.keymapper.touchpointer.KeymapSnapshot;
 import xtr.keymapper.touchpointer.MouseEventHandler;
 
 public interface IInputInterface {
     void injectEvent(float x, float y, int action, int pointerId);
+    void injectEventDelayed(float x, float y, int action, int pointerId, long delayMillis);
     void injectHoverEvent(float x, float y, int pointerId);
     void injectScroll(float x, float y, int value);
+    void toggleMacro(KeymapProfileMacro macro, int pointerId);
     void pauseResumeKeymap();
     KeymapConfig getKeymapConfig();
     KeyEventHandler getKeyEventHandler();
     MouseEventHandler getMouseEventHandler();
     KeymapProfile getKeymapProfile();
+    KeymapSnapshot getKeymapSnapshot();
     IRemoteServiceCallback getCallback();
-    void moveCursorX(int x);
-    void moveCursorY(int y);
+    void setCursorPosition(int x, int y);
     void hideCursor();
     void showCursor();
 }
@@ -1,32 +1,33 @@
 package xtr.keymapper.server;
 
-import android.os.Build;
+import static android.content.Context.INPUT_SERVICE;
+
+import android.hardware.input.IInputManager;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.RemoteException;
+import android.os.ServiceManager;
 import android.os.SystemClock;
 import android.util.Log;
 import android.view.InputDevice;
 import android.view.MotionEvent;
 
-import com.genymobile.scrcpy.Point;
-import com.genymobile.scrcpy.Pointer;
 import com.genymobile.scrcpy.PointersState;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-
 public class Input {
 
-    static Method injectInputEventMethod;
-    static Object inputManager;
+    // InputManager.INJECT_INPUT_EVENT_MODE_ASYNC
+    private static final int INJECT_MODE_ASYNC = 0;
 
     private final PointersState pointersState = new PointersState();
     private final MotionEvent.PointerProperties[] pointerProperties = new MotionEvent.PointerProperties[PointersState.MAX_POINTERS];
     private final MotionEvent.PointerCoords[] pointerCoords = new MotionEvent.PointerCoords[PointersState.MAX_POINTERS];
+    // Scroll events are injected from the scroll thread, they must not share pointers with touch events
+    private final MotionEvent.PointerProperties[] scrollProperties = {new MotionEvent.PointerProperties()};
+    private final MotionEvent.PointerCoords[] scrollCoords = {new MotionEvent.PointerCoords()};
     private long lastTouchDown;
     private final SmoothScroll scrollHandler = new SmoothScroll();
     private Handler mHandler;
-    private int pointerCount = 0;
 
     private void initPointers() {
         for (int i = 0; i < PointersState.MAX_POINTERS; ++i) {
@@ -43,36 +44,42 @@ public class Input {
     }
 
     public boolean noPointersDown() {
-        if (pointerCount > 0) {
-            pointerCount = pointersState.update(pointerProperties, pointerCoords);
-            for (int i = 0; i < pointerCount; i++) {
-                if (!pointersState.get(i).isUp()) return false;
-            }
-        }
-        return true;
+        return !pointersState.hasPointersDown();
     }
 
     public Input() {
         initPointers();
+        scrollProperties[0].id = 0;
+        scrollProperties[0].toolType = MotionEvent.TOOL_TYPE_FINGER;
     }
 
+    // Called only from the injector thread, see InputInjector
     public void injectTouch(int action, int pointerId, float pressure, float x, float y) {
+        MotionEvent motionEvent = obtainTouchEvent(action, pointerId, pressure, x, y);
+        if (motionEvent != null) injectEvent(motionEvent);
+    }
+
+    /**
+     * Updates the pointer state and builds the event from the reused pointer arrays,
+     * a move must not allocate, see InputAllocationTest
+     * @return an event from the MotionEvent pool to be recycled, or null if there are too many pointers
+     */
+    MotionEvent obtainTouchEvent(int action, int pointerId, float pressure, float x, float y) {
         long now = SystemClock.uptimeMillis();
-        Point point = new Point(x, y);
 
-        int pointerIndex = pointersState.getPointerIndex(pointerId);
-        if (pointerIndex == -1) {
+        int localId = pointersState.getLocalId(pointerId);
+        if (localId == -1) {
             Log.e(RemoteService.TAG, "Too many pointers for touch event");
+            return null;
         }
-        Pointer pointer = pointersState.get(pointerIndex);
-        pointer.setPoint(point);
-        pointer.setPressure(pressure);
-        if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_HOVER_MOVE) pointer.setUp(true);        
-        else if (action == MotionEvent.ACTION_DOWN) pointer.setUp(false);
+        pointersState.setPoint(localId, x, y, pressure);
+        if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_HOVER_MOVE) pointersState.setUp(localId, true);
+        else if (action == MotionEvent.ACTION_DOWN) pointersState.setUp(localId, false);
 
         int source = InputDevice.SOURCE_TOUCHSCREEN;
 
-        pointerCount = pointersState.update(pointerProperties, pointerCoords);
+        int pointerIndex = pointersState.getPointerIndex(localId);
+        int pointerCount = pointersState.update(pointerProperties, pointerCoords);
 
         if (pointerCount == 1) {
             if (action == MotionEvent.ACTION_DOWN) {
@@ -88,14 +95,23 @@ public class Input {
                         (pointerIndex << MotionEvent.ACTION_POINTER_INDEX_SHIFT);
             }
         }
-        MotionEvent motionEvent = MotionEvent.obtain(lastTouchDown, now, action, pointerCount,
+        return MotionEvent.obtain(lastTouchDown, now, action, pointerCount,
                 pointerProperties, pointerCoords,
                 0, 0, 1f, 1f,
                 0, 0, source, 0);
+    }
+
+    /**
+     * Injects the event and returns it to the MotionEvent pool,
+     * the event is copied into a parcel before injectInputEvent returns.
+     */
+    private void injectEvent(MotionEvent motionEvent) {
         try {
-            injectInputEventMethod.invoke(inputManager, motionEvent, 0);
-        } catch (IllegalAccessException | InvocationTargetException e) {
+            InputManagerHolder.inputManager.injectInputEvent(motionEvent, INJECT_MODE_ASYNC);
+        } catch (RemoteException | RuntimeException e) {
             Log.e(RemoteService.TAG, e.getMessage(), e);
+        } finally {
+            motionEvent.recycle();
         }
     }
 
@@ -107,24 +123,17 @@ public class Input {
     private void injectScroll(ScrollEvent event, float value) {
         long now = SystemClock.uptimeMillis();
 
-        MotionEvent.PointerProperties props = pointerProperties[0];
-        props.id = 0;
-
-        MotionEvent.PointerCoords coords = pointerCoords[0];
+        MotionEvent.PointerCoords coords = scrollCoords[0];
         coords.x = event.x;
         coords.y = event.y;
         coords.setAxisValue(MotionEvent.AXIS_VSCROLL, value);
 
         MotionEvent motionEvent = MotionEvent
                 .obtain(lastTouchDown, now, MotionEvent.ACTION_SCROLL, 1,
-                        pointerProperties, pointerCoords,
+                        scrollProperties, scrollCoords,
                         0, 0, 1f, 1f, 0, 0,
                         InputDevice.SOURCE_MOUSE, 0);
-        try {
-            injectInputEventMethod.invoke(inputManager, motionEvent, 0);
-        } catch (IllegalAccessException | InvocationTargetException e) {
-            Log.e(RemoteService.TAG, e.getMessage(), e);
-        }
+        injectEvent(motionEvent);
     }
 
     private static class ScrollEvent {
@@ -198,31 +207,11 @@ public class Input {
         }
     }
 
-    static {
-        String methodName = "getInstance";
-        Object[] objArr = new Object[0];
-         try {
-             Class<?> inputManagerClass;
-             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
-                inputManagerClass = Class.forName("android.hardware.input.InputManagerGlobal");
-             } else {
-                 inputManagerClass = android.hardware.input.InputManager.class;
-             }
-
-             inputManager = inputManagerClass.getDeclaredMethod(methodName)
-                     .invoke(null, objArr);
-             //Make MotionEvent.obtain() method accessible
-             methodName = "obtain";
-             MotionEvent.class.getDeclaredMethod(methodName)
-                     .setAccessible(true);
-
-             //Get the reference to injectInputEvent method
-             methodName = "injectInputEvent";
-
-             injectInputEventMethod = inputManagerClass.getMethod(methodName, android.view.InputEvent.class, Integer.TYPE);
-
-         } catch (Exception e) {
-             Log.e(RemoteService.TAG, e.getMessage(), e);
-         }
+    /**
+     * The input manager binder, called directly instead of through the hidden InputManager method.
+     * Looked up on first injection, so that events can be built without the service
+     */
+    private static final class InputManagerHolder {
+        static final IInputManager inputManager = IInputManager.Stub.asInterface(ServiceManager.getService(INPUT_SERVICE));
     }
 }
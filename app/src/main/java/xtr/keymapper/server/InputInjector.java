@@ -0,0 +1,162 @@
+package xtr.keymapper.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import xtr.keymapper.keymap.KeymapProfileMacro;
+
+/**
+ * Serializes touch injection on a single thread.
+ * Touch events are posted from the mouse reader, the key event handler thread,
+ * the main looper and the zoom threads into a bounded lock-free multi-producer single-consumer queue,
+ * so injections are done one at a time in the order they were posted.
+ * Delayed events wait in a timer wheel on the same thread, which sleeps until the next one is due.
+ * Macros are played on this thread as well, see MacroPlayer.
+ * Runs with the priority set in KeymapConfig, see ThreadPolicy.
+ */
+public class InputInjector extends Thread implements TimerWheel.Dispatcher {
+    public static final int HOVER = 3; // In addition to InputService.UP, DOWN and MOVE
+
+    private static final int CAPACITY = 256;
+    private static final int MASK = CAPACITY - 1;
+
+    // Slot i is free for position p when sequence[i] == p, and holds the event at p when sequence[i] == p + 1
+    private final AtomicLongArray sequence = new AtomicLongArray(CAPACITY);
+    private final int[] actions = new int[CAPACITY];
+    private final int[] pointerIds = new int[CAPACITY];
+    private final float[] xs = new float[CAPACITY];
+    private final float[] ys = new float[CAPACITY];
+    private final long[] dueTimes = new long[CAPACITY]; // System.nanoTime(), 0 for events without delay
+
+    private final AtomicLong tail = new AtomicLong();
+    private long head = 0; // Only used by the injector thread
+    private final TimerWheel timers = new TimerWheel();
+    private final MacroPlayer macros = new MacroPlayer();
+
+    private volatile boolean parked = false;
+    private volatile boolean running = true;
+    private final InputService inputService;
+
+    public InputInjector(InputService inputService) {
+        super("injector");
+        this.inputService = inputService;
+        for (int i = 0; i < CAPACITY; i++) sequence.set(i, i);
+        setDaemon(true);
+    }
+
+    /**
+     * May be called from any thread, waits for the injector if the queue is full
+     * @param action one of InputService.UP, DOWN, MOVE or HOVER
+     */
+    public void post(int action, int pointerId, float x, float y) {
+        post(action, pointerId, x, y, 0);
+    }
+
+    /**
+     * Same as post, the event is injected after the delay
+     */
+    public void postDelayed(int action, int pointerId, float x, float y, long delayMillis) {
+        post(action, pointerId, x, y, System.nanoTime() + delayMillis * 1_000_000);
+    }
+
+    private void post(int action, int pointerId, float x, float y, long dueTime) {
+        long pos;
+        int i;
+        while (true) {
+            pos = tail.get();
+            i = (int) (pos & MASK);
+            long available = sequence.get(i) - pos;
+            if (available == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) break;
+            } else if (available < 0) {
+                // Full, events are not dropped since a lost UP would leave the pointer down
+                Thread.yield();
+            }
+        }
+        actions[i] = action;
+        pointerIds[i] = pointerId;
+        xs[i] = x;
+        ys[i] = y;
+        dueTimes[i] = dueTime;
+        // Publish the event, a volatile write so that the parked check below can not be reordered before it
+        sequence.set(i, pos + 1);
+
+        if (parked) LockSupport.unpark(this);
+    }
+
+    /**
+     * May be called from any thread, plays the macro or stops it if it is playing
+     * @param pointerId pointer used for the touch samples of the macro
+     */
+    public void toggleMacro(KeymapProfileMacro macro, int pointerId) {
+        macros.toggle(macro, pointerId);
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * Stops all macros, pointers which are down are released
+     */
+    public void stopMacros() {
+        macros.stopAll();
+        LockSupport.unpark(this);
+    }
+
+    public void quit() {
+        running = false;
+        LockSupport.unpark(this);
+    }
+
+    @Override
+    public void run() {
+        ThreadPolicy.applyToCurrentThread(inputService.getKeymapConfig());
+        while (running) {
+            timers.advance(this);
+            macros.advance(this);
+
+            int i = (int) (head & MASK);
+            if (sequence.get(i) != head + 1) {
+                long timeout = nextTimeout();
+                if (timeout == 0) continue;
+                parked = true;
+                // Check again after setting parked, in case an event was posted before it was seen
+                if (sequence.get(i) != head + 1 && !macros.hasCommands() && running) {
+                    if (timeout < 0) LockSupport.park(this);
+                    else LockSupport.parkNanos(this, timeout);
+                }
+                parked = false;
+                continue;
+            }
+            int action = actions[i];
+            int pointerId = pointerIds[i];
+            float x = xs[i];
+            float y = ys[i];
+            long dueTime = dueTimes[i];
+            // Release the slot for position head + CAPACITY
+            sequence.set(i, head + CAPACITY);
+            head++;
+
+            // Delayed events always go through the wheel, even if already due, so they keep their order.
+            // If all timers are in use the event is injected now rather than lost
+            if (dueTime == 0 || !timers.add(dueTime, action, pointerId, x, y))
+                dispatch(action, pointerId, x, y);
+        }
+    }
+
+    /**
+     * @return nanoseconds until a timer or macro sample is due, or -1 if there are none
+     */
+    private long nextTimeout() {
+        long timers = this.timers.nanosUntilNext();
+        long macros = this.macros.nanosUntilNext();
+        if (timers < 0) return macros;
+        if (macros < 0) return timers;
+        return Math.min(timers, macros);
+    }
+
+    @Override
+    public void dispatch(int action, int pointerId, float x, float y) {
+        if (action == HOVER) inputService.dispatchHoverEvent(x, y, pointerId);
+        else inputService.dispatchEvent(x, y, action, pointerId);
+    }
+}
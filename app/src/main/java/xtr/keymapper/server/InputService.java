@@ -10,60 +10,115 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.RemoteException;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.MotionEvent;
 import android.view.View;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import xtr.keymapper.CursorOverlay;
 import xtr.keymapper.IRemoteServiceCallback;
 import xtr.keymapper.keymap.KeymapConfig;
 import xtr.keymapper.keymap.KeymapProfile;
+import xtr.keymapper.keymap.KeymapProfileMacro;
 import xtr.keymapper.touchpointer.KeyEventHandler;
+import xtr.keymapper.touchpointer.KeymapSnapshot;
 import xtr.keymapper.touchpointer.MouseEventHandler;
 
 public class InputService implements IInputInterface {
     private final MouseEventHandler mouseEventHandler;
     private final KeyEventHandler keyEventHandler;
-    private KeymapConfig keymapConfig;
-    private KeymapProfile keymapProfile;
+    // Replaced on reload while input threads are reading it
+    private volatile KeymapSnapshot keymapSnapshot;
+    private final int screenWidth, screenHeight;
     private final Input input = new Input();
+    // Replaces injection through Input when enabled in settings
+    private UinputTouchscreen touchscreen;
+    private final InputInjector injector = new InputInjector(this);
     public static final int UP = 0, DOWN = 1, MOVE = 2;
     private final IRemoteServiceCallback mCallback;
     boolean stopEvents = false;
     private final boolean isWaylandClient;
     private final int touchpadInputMode;
-    private final View cursorView;
+    private final CursorOverlay cursorOverlay;
     private final int currentPointerMode;
 
     private final Handler mHandler = new Handler(Looper.getMainLooper());
 
-    public InputService(KeymapProfile profile, KeymapConfig keymapConfig, IRemoteServiceCallback mCallback, int screenWidth, int screenHeight, View cursorView, boolean isWaylandClient) throws RemoteException {
-        this.keymapProfile = profile;
-        this.keymapConfig = keymapConfig;
+    // Latest cursor position, x in the high and y in the low 32 bits, applied once per frame
+    private final AtomicLong cursorPosition = new AtomicLong();
+    private final AtomicBoolean cursorFrameScheduled = new AtomicBoolean();
+    private final Choreographer.FrameCallback cursorFrameCallback = this::updateCursor;
+    // Binder transactions to the client app while the cursor is moving, logged every second
+    private static final long CURSOR_STATS_INTERVAL_NANOS = 1_000_000_000L;
+    private static final long CURSOR_IDLE_NANOS = 100_000_000L;
+    private long cursorStatsStart, lastCursorTransaction;
+    private int cursorTransactions;
+    private final Runnable scheduleCursorFrame = () -> Choreographer.getInstance().postFrameCallback(cursorFrameCallback);
+
+    public InputService(KeymapProfile profile, KeymapConfig keymapConfig, IRemoteServiceCallback mCallback, int screenWidth, int screenHeight, CursorOverlay cursorOverlay, boolean isWaylandClient) throws RemoteException {
+        this.screenWidth = screenWidth;
+        this.screenHeight = screenHeight;
+        this.keymapSnapshot = new KeymapSnapshot(profile, keymapConfig, this, screenWidth, screenHeight);
         this.mCallback = mCallback;
         this.isWaylandClient = isWaylandClient;
-        this.cursorView = cursorView;
+        this.cursorOverlay = cursorOverlay;
         this.currentPointerMode = keymapConfig.pointerMode;
         if (currentPointerMode != KeymapConfig.POINTER_OVERLAY) {
             initMouseCursor(screenWidth, screenHeight);
             // Reduce visibility of system pointer
-            cursorSetX(0);
-            cursorSetY(0);
+            cursorSetPosition(0, 0);
         }
         if (currentPointerMode != KeymapConfig.POINTER_SYSTEM) showCursor();
 
+        if (keymapConfig.uinputTouchscreen) {
+            touchscreen = new UinputTouchscreen();
+            if (!touchscreen.create(screenWidth, screenHeight)) {
+                Log.e(RemoteService.TAG, "failed to create virtual touchscreen");
+                touchscreen = null;
+            }
+        }
+
+        injector.start();
+
         this.touchpadInputMode = keymapConfig.touchpadInputMode;
         if (touchpadInputMode == KeymapConfig.TOUCHPAD_DIRECT)
             startTouchpadDirect();
         else if (touchpadInputMode == KeymapConfig.TOUCHPAD_RELATIVE)
             startTouchpadRelative();
 
-        mouseEventHandler = new MouseEventHandler(this);
-        mouseEventHandler.init(screenWidth, screenHeight);
-
+        mouseEventHandler = new MouseEventHandler(this, screenWidth, screenHeight);
         keyEventHandler = new KeyEventHandler(this);
-        keyEventHandler.init();
+
+        // Mouse frames from mouse_read.c are consumed in batches on a separate thread
+        if (!isWaylandClient) new MouseEventRing(this).startReading();
+
+        applyThreadPolicy();
     }
 
     public void injectEvent(float x, float y, int action, int pointerId) {
+        injector.post(action, pointerId, x, y);
+    }
+
+    @Override
+    public void injectEventDelayed(float x, float y, int action, int pointerId, long delayMillis) {
+        injector.postDelayed(action, pointerId, x, y, delayMillis);
+    }
+
+    @Override
+    public void injectHoverEvent(float x, float y, int pointerId) {
+        injector.post(InputInjector.HOVER, pointerId, x, y);
+    }
+
+    /*
+     * Called from InputInjector on the injector thread
+     */
+    void dispatchEvent(float x, float y, int action, int pointerId) {
+        if (touchscreen != null) {
+            touchscreen.injectTouch(action, pointerId, x, y);
+            return;
+        }
         switch (action) {
             case UP:
                 input.injectTouch(MotionEvent.ACTION_UP, pointerId, 0.0f, x, y);
@@ -77,26 +132,35 @@ public class InputService implements IInputInterface {
         }
     }
 
-    @Override
-    public void injectHoverEvent(float x, float y, int pointerId) {
-        if(input.noPointersDown() && currentPointerMode == KeymapConfig.POINTER_OVERLAY)
+    void dispatchHoverEvent(float x, float y, int pointerId) {
+        if(noPointersDown() && currentPointerMode == KeymapConfig.POINTER_OVERLAY)
             input.injectTouch(MotionEvent.ACTION_HOVER_MOVE, pointerId, 1.0f, x, y);
     }
 
+    private boolean noPointersDown() {
+        return touchscreen != null ? touchscreen.noPointersDown() : input.noPointersDown();
+    }
+
     public void injectScroll(float x, float y, int value) {
         input.onScrollEvent(x, y, value);
     }
 
+    @Override
+    public void toggleMacro(KeymapProfileMacro macro, int pointerId) {
+        injector.toggleMacro(macro, pointerId);
+    }
+
     @Override
     public void pauseResumeKeymap() {
         stopEvents = !stopEvents;
+        if (stopEvents) injector.stopMacros();
         if (!isWaylandClient) {
             setMouseLock(!stopEvents);
         }
     }
 
     public KeymapConfig getKeymapConfig() {
-        return keymapConfig;
+        return keymapSnapshot.config;
     }
 
     public KeyEventHandler getKeyEventHandler() {
@@ -109,47 +173,73 @@ public class InputService implements IInputInterface {
 
     @Override
     public KeymapProfile getKeymapProfile() {
-        return keymapProfile;
+        return keymapSnapshot.profile;
+    }
+
+    @Override
+    public KeymapSnapshot getKeymapSnapshot() {
+        return keymapSnapshot;
     }
 
     public IRemoteServiceCallback getCallback() {
         return mCallback;
     }
 
-    public void moveCursorX(int x) {
-        if (cursorView != null) {
-            mHandler.post(() -> cursorView.setX(x));
-        } else {
-            try {
-                mCallback.setCursorX(x);
-            } catch (RemoteException ignored) {
-            }
-        }
+    /**
+     * The cursor overlay is moved on the next frame, only the latest position of that frame is drawn
+     */
+    public void setCursorPosition(int x, int y) {
+        cursorPosition.set(((long) x << 32) | (y & 0xffffffffL));
+        if (cursorFrameScheduled.compareAndSet(false, true))
+            mHandler.post(scheduleCursorFrame);
+
         if (currentPointerMode != KeymapConfig.POINTER_OVERLAY) {
             // To avoid conflict with touch input when moving virtual pointer
-            if (input.noPointersDown()) cursorSetX(x);
+            if (noPointersDown()) cursorSetPosition(x, y);
         }
     }
 
-    public void moveCursorY(int y) {
-        if (cursorView != null) {
-            mHandler.post(() -> cursorView.setY(y));
+    /*
+     * Called from Choreographer on the main thread
+     */
+    private void updateCursor(long frameTimeNanos) {
+        // Cleared before reading so that a position set after this is drawn on the next frame
+        cursorFrameScheduled.set(false);
+        long position = cursorPosition.get();
+        int x = (int) (position >> 32);
+        int y = (int) position;
+        if (cursorOverlay != null) {
+            cursorOverlay.setPosition(x, y);
         } else {
             try {
-                mCallback.setCursorY(y);
+                // Oneway, does not wait for the client app
+                mCallback.setCursorPosition(x, y);
             } catch (RemoteException ignored) {
             }
+            countCursorTransaction(frameTimeNanos);
         }
-        if (currentPointerMode != KeymapConfig.POINTER_OVERLAY) {
-            // To avoid conflict with touch input when moving virtual pointer
-            if (input.noPointersDown()) cursorSetY(y);
+    }
+
+    private void countCursorTransaction(long frameTimeNanos) {
+        if (frameTimeNanos - lastCursorTransaction > CURSOR_IDLE_NANOS) {
+            // Cursor was not moving, start counting again
+            cursorStatsStart = frameTimeNanos;
+            cursorTransactions = 0;
+        }
+        lastCursorTransaction = frameTimeNanos;
+        cursorTransactions++;
+        long elapsed = frameTimeNanos - cursorStatsStart;
+        if (elapsed >= CURSOR_STATS_INTERVAL_NANOS) {
+            Log.i(RemoteService.TAG, "cursor callback: " + cursorTransactions * CURSOR_STATS_INTERVAL_NANOS / elapsed + " transactions/s");
+            cursorStatsStart = frameTimeNanos;
+            cursorTransactions = 0;
         }
     }
 
     @Override
     public void hideCursor() {
-        if (cursorView != null) {
-            mHandler.post(() -> cursorView.setVisibility(View.GONE));
+        if (cursorOverlay != null) {
+            mHandler.post(() -> cursorOverlay.setVisibility(View.GONE));
         } else {
             try {
                 mCallback.disablePointer();
@@ -161,8 +251,8 @@ public class InputService implements IInputInterface {
 
     @Override
     public void showCursor() {
-        if (cursorView != null) {
-            mHandler.post(() -> cursorView.setVisibility(View.VISIBLE));
+        if (cursorOverlay != null) {
+            mHandler.post(() -> cursorOverlay.setVisibility(View.VISIBLE));
         } else {
             try {
                 mCallback.enablePointer();
@@ -173,19 +263,41 @@ public class InputService implements IInputInterface {
 
     }
 
+    /**
+     * Replaces the keymap while input keeps being handled. The new keymap is built on the calling binder thread
+     * and published with a single write, each input thread takes it over on its next event:
+     * keys held with the previous keymap are released and the mouse aim pointer is moved to the new one.
+     */
     public void reloadKeymap() {
         try {
-            this.keymapProfile = mCallback.requestKeymapProfile();
-            this.keymapConfig = mCallback.requestKeymapConfig();
-            this.stop();
-            keyEventHandler.init();
-            mouseEventHandler.init();
+            long start = System.nanoTime();
+            KeymapProfile profile = mCallback.requestKeymapProfile();
+            KeymapConfig config = mCallback.requestKeymapConfig();
+            long received = System.nanoTime();
+            KeymapSnapshot previous = keymapSnapshot;
+            keymapSnapshot = new KeymapSnapshot(profile, config, this, screenWidth, screenHeight);
+            // Macros of the previous keymap are not played any further
+            injector.stopMacros();
+            closeMacroFiles(previous);
+            long swapped = System.nanoTime();
+            applyThreadPolicy();
+            Log.i(RemoteService.TAG, "keymap reloaded in " + (swapped - start) / 1000 + " us, "
+                    + (received - start) / 1000 + " us of it requesting the profile");
         } catch (Exception e) {
             Log.e(RemoteService.TAG, e.getMessage(), e);
         }
     }
 
+    /**
+     * Macro files are only closed once read, the files of macros which were never played are closed here
+     */
+    private static void closeMacroFiles(KeymapSnapshot snapshot) {
+        for (KeymapProfileMacro macro : snapshot.profile.macros) macro.closeFile();
+    }
+
     public void stop() {
+        injector.stopMacros();
+        closeMacroFiles(keymapSnapshot);
         keyEventHandler.stop();
         mouseEventHandler.stop();
     }
@@ -197,12 +309,33 @@ public class InputService implements IInputInterface {
             stopTouchpadRelative();
     }
 
+    /**
+     * Sets priority and cpu affinity of input threads from keymap config, the result is logged
+     */
+    public void applyThreadPolicy() {
+        ThreadPolicy.apply(keymapSnapshot.config);
+    }
+
+    public void stopInjector() {
+        injector.quit();
+        try {
+            // Pending events are dropped, wait for the current one before the touchscreen is destroyed
+            injector.join(100);
+        } catch (InterruptedException e) {
+            Log.e(RemoteService.TAG, e.getMessage(), e);
+        }
+    }
+
+    public void destroyTouchscreen() {
+        if (touchscreen != null) touchscreen.destroy();
+        touchscreen = null;
+    }
+
     public native int openDevice(String device);
     public native void stopMouse();
     
     // mouse cursor created with uinput in mouse_cursor.cpp
-    public native void cursorSetX(int x);
-    public native void cursorSetY(int y);
+    public native void cursorSetPosition(int x, int y);
     private native int initMouseCursor(int width, int height);
     public native void destroyUinputDev();
 
@@ -216,10 +349,11 @@ public class InputService implements IInputInterface {
     public native void stopTouchpadRelative();
 
     /*
-     * Called from native code to send mouse event to client
+     * Called from MouseEventRing, or from native code if the ring is unavailable,
+     * once per SYN_REPORT to send mouse events to client
      */
-    public void sendMouseEvent(int code, int value) {
-        if (!stopEvents) mouseEventHandler.handleEvent(code, value);
+    public void sendMouseFrame(int dx, int dy, int wheel, int buttons) {
+        if (!stopEvents) mouseEventHandler.handleFrame(dx, dy, wheel, buttons);
     }
 
     public void sendWaylandMouseEvent(String line) {
@@ -242,11 +376,11 @@ public class InputService implements IInputInterface {
                 mouseEventHandler.handleEvent(BTN_RIGHT, value);
                 break;
             case "REL_X":
-                if (mouseEventHandler.mouseAimActive)
+                if (mouseEventHandler.isMouseAimActive())
                     mouseEventHandler.handleEvent(REL_X, value);
                 break;
             case "REL_Y":
-                if (mouseEventHandler.mouseAimActive)
+                if (mouseEventHandler.isMouseAimActive())
                     mouseEventHandler.handleEvent(REL_Y, value);
                 break;
         }
@@ -0,0 +1,93 @@
+package xtr.keymapper.server;
+
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import xtr.keymapper.InputEventCodes;
+import xtr.keymapper.OnKeyEventListener;
+
+/**
+ * Sends input events to an OnKeyEventListener, like the editor waiting for a key press.
+ * Events are filtered on the reader thread and queued without blocking it,
+ * this thread sends whatever is queued in one oneway call so a slow listener never delays input.
+ */
+class KeyEventDispatcher extends Thread {
+    private static final int CAPACITY = 256;
+    private static final int MAX_BATCH = 64;
+
+    final OnKeyEventListener listener;
+    private final int filter;
+    private final boolean[] keyCodes; // null for all keys
+    private final ArrayBlockingQueue<String> events = new ArrayBlockingQueue<>(CAPACITY);
+    private final ArrayList<String> batch = new ArrayList<>(MAX_BATCH);
+
+    KeyEventDispatcher(OnKeyEventListener listener, int filter, int[] keyCodes) {
+        super("key_event_dispatcher");
+        this.listener = listener;
+        this.filter = filter;
+        if (keyCodes != null) {
+            this.keyCodes = new boolean[InputEventCodes.KEY_CNT];
+            for (int code : keyCodes)
+                if (code >= 0 && code < InputEventCodes.KEY_CNT) this.keyCodes[code] = true;
+        } else {
+            this.keyCodes = null;
+        }
+        setDaemon(true);
+    }
+
+    private boolean acceptKey(int code) {
+        if (InputEventCodes.getKeyName(code) == null) return false;
+        return keyCodes == null || keyCodes[code];
+    }
+
+    /**
+     * For a raw key event from keyboard_read.cpp
+     */
+    void post(int code, int value) {
+        if (!acceptKey(code)) return;
+        // Same format as a line of output from getevent -ql
+        events.offer("keyboard: EV_KEY " + InputEventCodes.getKeyName(code) + (value == 0 ? " UP" : value == 1 ? " DOWN" : " REPEAT"));
+    }
+
+    /**
+     * @param line A line of output from getevent -ql
+     */
+    void post(String line) {
+        if (filter == OnKeyEventListener.FILTER_KEYS || keyCodes != null) {
+            // line: /dev/input/event3: EV_KEY KEY_X DOWN
+            if (!line.contains("EV_KEY")) {
+                if (filter == OnKeyEventListener.FILTER_KEYS) return;
+            } else {
+                String[] input_event = line.split("\\s+");
+                if (input_event.length < 3 || !acceptKey(InputEventCodes.getKeyCode(input_event[2]))) return;
+            }
+        }
+        // Dropped instead of waiting if the listener falls behind
+        events.offer(line);
+    }
+
+    void quit() {
+        interrupt();
+    }
+
+    @Override
+    public void run() {
+        while (!isInterrupted()) {
+            try {
+                batch.add(events.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            events.drainTo(batch, MAX_BATCH - 1);
+            try {
+                listener.onKeyEvents(batch.toArray(new String[0]));
+            } catch (RemoteException e) {
+                Log.e(RemoteService.TAG, e.getMessage(), e);
+            }
+            batch.clear();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package xtr.keymapper.server;
+
+import static xtr.keymapper.server.InputService.MOVE;
+import static xtr.keymapper.server.InputService.UP;
+
+import android.util.Log;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import xtr.keymapper.keymap.KeymapProfileMacro;
+
+/**
+ * Plays recorded macros on the injector thread, between other touch events.
+ * Each sample is due at the start time plus its recorded time, so waking up late never delays the samples after it
+ * and a macro ends at its recorded length. Moves which are already late are skipped in favour of the latest one.
+ * Macros are started and stopped from any thread through a queue which the injector thread drains.
+ * The samples of a macro are read from its file the first time it is started.
+ */
+class MacroPlayer {
+    private static final int MAX_PLAYING = 8;
+
+    private static final class Playback {
+        final KeymapProfileMacro macro;
+        final int pointerId;
+        long startNanos;
+        int next; // Index of the next sample
+        boolean down;
+
+        Playback(KeymapProfileMacro macro, int pointerId) {
+            this.macro = macro;
+            this.pointerId = pointerId;
+        }
+
+        long deadline(int i) {
+            return startNanos + macro.timesMillis[i] * 1_000_000L;
+        }
+    }
+
+    // A playback to start or stop, or STOP_ALL
+    private final ConcurrentLinkedQueue<Playback> commands = new ConcurrentLinkedQueue<>();
+    private static final Playback STOP_ALL = new Playback(null, -1);
+
+    private final Playback[] playing = new Playback[MAX_PLAYING];
+    private int size = 0;
+
+    /**
+     * May be called from any thread, plays the macro or stops it if it is already playing with the pointer id
+     */
+    void toggle(KeymapProfileMacro macro, int pointerId) {
+        commands.offer(new Playback(macro, pointerId));
+    }
+
+    void stopAll() {
+        commands.offer(STOP_ALL);
+    }
+
+    boolean hasCommands() {
+        return !commands.isEmpty();
+    }
+
+    /**
+     * Starts and stops macros as requested and dispatches all samples which are due
+     */
+    void advance(TimerWheel.Dispatcher dispatcher) {
+        Playback command;
+        while ((command = commands.poll()) != null) {
+            if (command == STOP_ALL) {
+                while (size > 0) stop(size - 1, dispatcher);
+                continue;
+            }
+            int i = indexOf(command.pointerId);
+            if (i != -1) {
+                stop(i, dispatcher);
+            } else if (size < MAX_PLAYING && command.macro.load()) {
+                command.startNanos = System.nanoTime();
+                playing[size++] = command;
+            }
+        }
+
+        long now = System.nanoTime();
+        for (int i = size - 1; i >= 0; i--) {
+            Playback playback = playing[i];
+            KeymapProfileMacro macro = playback.macro;
+            int n = macro.size();
+            while (playback.next < n && playback.deadline(playback.next) <= now) {
+                int s = playback.next++;
+                int action = macro.actions[s];
+                // Only the latest of the moves which are due is injected
+                if (action == MOVE && playback.next < n
+                        && macro.actions[playback.next] == MOVE
+                        && playback.deadline(playback.next) <= now) continue;
+                dispatcher.dispatch(action, playback.pointerId, macro.xs[s], macro.ys[s]);
+                playback.down = action != UP;
+            }
+            if (playback.next == n) {
+                Log.i(RemoteService.TAG, "macro " + macro.id + " played in " + (now - playback.startNanos) / 1000
+                        + " us, recorded " + macro.getDuration() + " ms");
+                remove(i);
+            }
+        }
+    }
+
+    /**
+     * @return nanoseconds until the next sample is due, or -1 if no macro is playing
+     */
+    long nanosUntilNext() {
+        if (size == 0) return -1;
+        long next = Long.MAX_VALUE;
+        for (int i = 0; i < size; i++)
+            next = Math.min(next, playing[i].deadline(playing[i].next));
+        return Math.max(next - System.nanoTime(), 0);
+    }
+
+    private int indexOf(int pointerId) {
+        for (int i = 0; i < size; i++)
+            if (playing[i].pointerId == pointerId) return i;
+        return -1;
+    }
+
+    private void stop(int i, TimerWheel.Dispatcher dispatcher) {
+        Playback playback = playing[i];
+        if (playback.down) {
+            // Release the pointer where it was last moved to
+            int last = playback.next - 1;
+            dispatcher.dispatch(UP, playback.pointerId, playback.macro.xs[last], playback.macro.ys[last]);
+        }
+        remove(i);
+    }
+
+    private void remove(int i) {
+        playing[i] = playing[--size];
+        playing[size] = null;
+    }
+}
@@ -0,0 +1,59 @@
+package xtr.keymapper.server;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Consumer of the ring buffer written by the native mouse reader in mouse_read.c.
+ * Frames are read in batches from shared memory, with one JNI call per batch
+ * instead of one upcall per mouse frame.
+ */
+public class MouseEventRing extends Thread {
+    // Must match struct mouse_event_ring in mouse_read.c
+    private static final int CAPACITY = 1024;
+    private static final int FRAMES_OFFSET = 192;
+    private static final int FRAME_SIZE = 16;
+
+    private final ByteBuffer ring = ByteBuffer.allocateDirect(FRAMES_OFFSET + CAPACITY * FRAME_SIZE)
+            .order(ByteOrder.nativeOrder());
+    private final InputService inputService;
+
+    public MouseEventRing(InputService inputService) {
+        super("mouse_events");
+        this.inputService = inputService;
+    }
+
+    /**
+     * @return false if native reader will keep calling InputService.sendMouseFrame directly
+     */
+    public boolean startReading() {
+        if (!init(ring)) {
+            Log.e(RemoteService.TAG, "failed to create mouse event ring");
+            return false;
+        }
+        start();
+        return true;
+    }
+
+    @Override
+    public void run() {
+        ThreadPolicy.applyToCurrentThread(inputService.getKeymapConfig());
+        int tail = 0;
+        int head;
+        // Returns -1 after InputService.stopMouse()
+        while ((head = waitFrames(ring, tail)) != -1) {
+            for (; tail != head; tail++) {
+                int offset = FRAMES_OFFSET + (tail & (CAPACITY - 1)) * FRAME_SIZE;
+                inputService.sendMouseFrame(ring.getInt(offset),
+                        ring.getInt(offset + 4),
+                        ring.getInt(offset + 8),
+                        ring.getInt(offset + 12));
+            }
+        }
+    }
+
+    private static native boolean init(ByteBuffer ring);
+    private static native int waitFrames(ByteBuffer ring, int consumed);
+}
@@ -6,7 +6,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
-import android.graphics.PixelFormat;
 import android.os.Binder;
 import android.os.Handler;
 import android.os.IBinder;
@@ -25,6 +24,7 @@ import java.lang.reflect.Method;
 
 import xtr.keymapper.ActivityObserver;
 import xtr.keymapper.BuildConfig;
+import xtr.keymapper.CursorOverlay;
 import xtr.keymapper.IRemoteService;
 import xtr.keymapper.IRemoteServiceCallback;
 import xtr.keymapper.OnKeyEventListener;
@@ -39,11 +39,11 @@ import xtr.keymapper.touchpointer.KeyEventHandler;
 public class RemoteService extends IRemoteService.Stub {
     private String currentDevice = "";
     InputService inputService;
-    private OnKeyEventListener mOnKeyEventListener;
+    private volatile KeyEventDispatcher keyEventDispatcher;
     boolean isWaylandClient = false;
     private ActivityObserverService activityObserverService;
     String nativeLibraryDir = System.getProperty("java.library.path");
-    private View cursorView;
+    private CursorOverlay cursorOverlay;
     private int TYPE_SECURE_SYSTEM_OVERLAY;
     Handler mHandler = new Handler(Looper.getMainLooper());
     private final WindowManager windowManager;
@@ -58,12 +58,12 @@ public class RemoteService extends IRemoteService.Stub {
         windowManager = context.getSystemService(WindowManager.class);
         LayoutInflater layoutInflater = context.getSystemService(LayoutInflater.class);
         context.setTheme(R.style.Theme_XtMapper);
-        cursorView = CursorBinding.inflate(layoutInflater).getRoot();
         try {
             prepareCursorOverlayWindow();
         } catch (Exception e) {
             Log.e(TAG, e.getMessage(), e);
         }
+        cursorOverlay = new CursorOverlay(windowManager, CursorBinding.inflate(layoutInflater).getRoot(), TYPE_SECURE_SYSTEM_OVERLAY);
         init();
     }
 
@@ -74,7 +74,7 @@ public class RemoteService extends IRemoteService.Stub {
         try {
             ApplicationInfo ai = pm.getApplicationInfo(packageName, 0);
             nativeLibraryDir = ai.nativeLibraryDir;
-            if(!isWaylandClient) start_getevent();
+            if(!isWaylandClient) startInputReader();
         } catch (PackageManager.NameNotFoundException e) {
             Log.e(TAG, e.getMessage(), e);
             throw new RuntimeException(e);
@@ -110,28 +110,15 @@ public class RemoteService extends IRemoteService.Stub {
     }
 
     private void addCursorView() {
-        if (cursorView == null) return;
+        if (cursorOverlay == null) return;
 
-        if(cursorView.isAttachedToWindow()) {
-            cursorView.setVisibility(View.VISIBLE);
+        if(cursorOverlay.isAttachedToWindow()) {
+            cursorOverlay.setVisibility(View.VISIBLE);
         } else {
-            WindowManager.LayoutParams params = new WindowManager.LayoutParams(
-                    WindowManager.LayoutParams.MATCH_PARENT, WindowManager.LayoutParams.MATCH_PARENT,
-                    TYPE_SECURE_SYSTEM_OVERLAY,
-                    // Don't let the cursor grab the input focus
-                    WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE |
-                            WindowManager.LayoutParams.FLAG_NOT_TOUCHABLE |
-                            WindowManager.LayoutParams.FLAG_FULLSCREEN |
-                            WindowManager.LayoutParams.FLAG_LAYOUT_IN_SCREEN |
-                            WindowManager.LayoutParams.FLAG_LAYOUT_INSET_DECOR |
-                            WindowManager.LayoutParams.FLAG_HARDWARE_ACCELERATED,
-                    // Make the underlying application window visible
-                    // through the cursor
-                    PixelFormat.TRANSLUCENT);
             try {
-                windowManager.addView(cursorView, params);
+                cursorOverlay.add();
             } catch (IllegalStateException e) { // A14 QPR3 issue https://gist.github.com/RikkaW/be3fe4178903702c54ec73b2fc1187fe
-                cursorView = null;
+                cursorOverlay = null;
                 Log.e(TAG, e.getMessage(), e);
             }
         }
@@ -149,8 +136,59 @@ public class RemoteService extends IRemoteService.Stub {
         System.loadLibrary("mouse_cursor");
         System.loadLibrary("touchpad_direct");
         System.loadLibrary("touchpad_relative");
+        System.loadLibrary("keyboard_read");
+        System.loadLibrary("touch_uinput");
+        System.loadLibrary("thread_policy");
     }
 
+    /**
+     * Reads keyboard devices directly with keyboard_read.cpp
+     * Falls back to getevent if no input devices could be opened
+     */
+    void startInputReader() {
+        if (!startKeyboardReader()) {
+            Log.i(TAG, "native keyboard reader unavailable, using getevent");
+            start_getevent();
+        }
+    }
+
+    /*
+     * Called from native code with a raw key event from a keyboard device
+     */
+    public void sendKeyEvent(int code, int value) {
+        try {
+            if (inputService != null) {
+                KeyEventHandler k = inputService.getKeyEventHandler();
+                if (!inputService.stopEvents) {
+                    k.handleEvent(code, value);
+                } else {
+                    k.handleKeyboardShortcutEvent(code, value);
+                }
+            }
+            KeyEventDispatcher dispatcher = keyEventDispatcher;
+            if (dispatcher != null) dispatcher.post(code, value);
+        } catch (Exception e) {
+            Log.e(TAG, e.getMessage(), e);
+        }
+    }
+
+    /*
+     * Called from native code when a device reports relative motion
+     */
+    public void addMouseDevice(String evdev) {
+        if (currentDevice.equals(evdev)) return;
+        System.out.println("add mouse device: " + evdev);
+        if (inputService != null) {
+            inputService.openDevice(evdev);
+            inputService.applyThreadPolicy();
+        }
+        currentDevice = evdev;
+    }
+
+    // keyboard_read.cpp
+    private native boolean startKeyboardReader();
+    native void stopKeyboardReader();
+
     /**
      * Executes getevent command and processes the output
      */
@@ -178,13 +216,14 @@ public class RemoteService extends IRemoteService.Stub {
                                 k.handleKeyboardShortcutEvent(data[1]);
                             }
                         }
-                        if (mOnKeyEventListener != null) mOnKeyEventListener.onKeyEvent(line);
+                        KeyEventDispatcher dispatcher = keyEventDispatcher;
+                        if (dispatcher != null) dispatcher.post(line);
                     }
                 }
             } catch (Exception e){
                 Log.e(TAG, e.getMessage(), e);
             }
-        }).start();
+        }, "getevent").start();
     }
 
     /**
@@ -198,12 +237,7 @@ public class RemoteService extends IRemoteService.Stub {
 
         input_event = data[1].split("\\s+");
         if (isWaylandClient) return true;
-        if( !currentDevice.equals(evdev) )
-            if (input_event[1].equals("EV_REL")) {
-                System.out.println("add mouse device: " + evdev);
-                if (inputService != null) inputService.openDevice(evdev);
-                currentDevice = evdev;
-            }
+        if (input_event[1].equals("EV_REL")) addMouseDevice(evdev);
         return true;
     }
 
@@ -224,10 +258,10 @@ public class RemoteService extends IRemoteService.Stub {
             if (keymapConfig.pointerMode != KeymapConfig.POINTER_SYSTEM) {
                 addCursorView();
             } else {
-                cursorView = null;
+                cursorOverlay = null;
             }
             try {
-                inputService = new InputService(profile, keymapConfig, cb, screenWidth, screenHeight, cursorView, isWaylandClient);
+                inputService = new InputService(profile, keymapConfig, cb, screenWidth, screenHeight, cursorOverlay, isWaylandClient);
                 if (!isWaylandClient) {
                     inputService.setMouseLock(true);
                     inputService.openDevice(currentDevice);
@@ -269,22 +303,40 @@ public class RemoteService extends IRemoteService.Stub {
             inputService.stopMouse();
             inputService.stopTouchpad();
             inputService.destroyUinputDev();
+            inputService.stopInjector();
+            inputService.destroyTouchscreen();
             inputService = null;
         }
     }
 
-    private final DeathRecipient mDeathRecipient = () -> mOnKeyEventListener = null;
+    private final DeathRecipient mDeathRecipient = this::stopKeyEventDispatcher;
 
     @Override
-    public void registerOnKeyEventListener(OnKeyEventListener l) throws RemoteException {
-        l.asBinder().linkToDeath(mDeathRecipient, 0);
-        mOnKeyEventListener = l;
+    public void registerOnKeyEventListener(OnKeyEventListener l, int filter, int[] keyCodes) throws RemoteException {
+        IBinder binder = l.asBinder();
+        KeyEventDispatcher dispatcher = new KeyEventDispatcher(l, filter, keyCodes);
+        synchronized (this) {
+            // A listener registered again, like with a new filter, is linked to death only once
+            IBinder previous = keyEventDispatcher != null ? keyEventDispatcher.listener.asBinder() : null;
+            if (previous != binder) {
+                binder.linkToDeath(mDeathRecipient, 0);
+                if (previous != null) previous.unlinkToDeath(mDeathRecipient, 0);
+            }
+            stopKeyEventDispatcher();
+            keyEventDispatcher = dispatcher;
+            dispatcher.start();
+        }
     }
 
     @Override
     public void unregisterOnKeyEventListener(OnKeyEventListener l)  {
         if (l != null) l.asBinder().unlinkToDeath(mDeathRecipient, 0);
-        mOnKeyEventListener = null;
+        stopKeyEventDispatcher();
+    }
+
+    private synchronized void stopKeyEventDispatcher() {
+        if (keyEventDispatcher != null) keyEventDispatcher.quit();
+        keyEventDispatcher = null;
     }
 
     @Override
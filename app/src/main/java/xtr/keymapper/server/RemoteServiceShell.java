@@ -31,6 +31,7 @@ public class RemoteServiceShell {
                     case "--wayland-client":
                         mService.isWaylandClient = true;
                         System.out.println("using wayland client");
+                        mService.stopKeyboardReader();
                         mService.start_getevent();
                         break;
                     case "--tcpip":
@@ -4,9 +4,14 @@ import android.net.LocalSocket;
 import android.net.LocalSocketAddress;
 import android.os.IBinder;
 import android.os.Parcel;
+import android.os.ParcelFileDescriptor;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileDescriptor;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.util.function.Consumer;
 
@@ -14,8 +19,21 @@ import xtr.keymapper.IRemoteService;
 import xtr.keymapper.IRemoteServiceCallback;
 import xtr.keymapper.keymap.KeymapConfig;
 import xtr.keymapper.keymap.KeymapProfile;
+import xtr.keymapper.keymap.KeymapProfileMacro;
 
+/**
+ * Calls IRemoteService over a local socket, see RemoteServiceSocketServer for the framing.
+ * Each call waits for the status from the server like a binder transaction.
+ * A parcel sent as bytes can not hold file descriptors, they are passed with the frame as ancillary data.
+ */
 public class RemoteServiceSocketClient implements IRemoteService {
+    static final String SOCKET_NAME = "xtmapper-a3e11694";
+    static final int STATUS_OK = 0;
+    static final int STATUS_EXCEPTION = -1;
+    // Larger frames are refused instead of allocated
+    static final int MAX_FRAME_SIZE = 1 << 20;
+    // File descriptors passed with one frame, further macros are sent without their file
+    static final int MAX_FILES = 64;
 
     // Socket should stay alive
     public static LocalSocket socket = null;
@@ -23,7 +41,7 @@ public class RemoteServiceSocketClient implements IRemoteService {
     public RemoteServiceSocketClient() throws IOException {
         if (socket == null) {
             socket = new LocalSocket();
-            socket.connect(new LocalSocketAddress("xtmapper-a3e11694"));
+            socket.connect(new LocalSocketAddress(SOCKET_NAME));
         }
     }
     public static class ParcelableByteArray {
@@ -35,12 +53,13 @@ public class RemoteServiceSocketClient implements IRemoteService {
         }
 
         public void foreach(Consumer<byte []> action) {
-            for (byte[] bytes : data) action.accept(bytes);
+            // Only the fields which were written
+            for (int j = 0; j < i; j++) action.accept(data[j]);
         }
 
-        private <T extends android.os.Parcelable> void writeTypedObject(T value) {
+        private <T extends android.os.Parcelable> void writeTypedObject(T value, int flags) {
             Parcel parcel = Parcel.obtain();
-            value.writeToParcel(parcel, 0);
+            value.writeToParcel(parcel, flags);
             data[i] = parcel.marshall();
             parcel.recycle();
             i++;
@@ -55,57 +74,109 @@ public class RemoteServiceSocketClient implements IRemoteService {
             data[i] = ByteBuffer.allocate(4).putInt(x).array();
             i++;
         }
-    }
 
-    public int readInt() {
-        int i;
-        try {
-            InputStream inputStream = socket.getInputStream();
-            int length = inputStream.read();
-            byte[] bytes = new byte[length];
-            inputStream.read(bytes);
-            i = ByteBuffer.wrap(bytes).getInt();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        public void writeByteArray(byte[] bytes) {
+            data[i] = bytes;
+            i++;
         }
-        return i;
     }
 
-    private boolean transactRemote(int code, ParcelableByteArray data) {
-        try {
-            socket.getOutputStream().write(code);
-
-            data.foreach(bytes -> {
-                try {
-                    socket.getOutputStream().write(bytes.length);
-                    socket.getOutputStream().write(bytes);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            });
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    private static boolean transactRemote(int code, ParcelableByteArray data) {
+        return transactRemote(code, data, null);
+    }
+
+    /**
+     * Sends the call as a single frame and waits for its status
+     * @param files passed with the frame, or null
+     * @return true if the call returned without an exception on the server
+     */
+    private static boolean transactRemote(int code, ParcelableByteArray data, FileDescriptor[] files) {
+        byte[] payload = encodeFields(code, data);
+
+        // Calls from different threads must not interleave their frames or replies
+        synchronized (RemoteServiceSocketClient.class) {
+            try {
+                // Sent with the first write of the frame
+                if (files != null) socket.setFileDescriptorsForSend(files);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                writeFrame(out, code, payload);
+                out.flush();
+                return new DataInputStream(socket.getInputStream()).readInt() == STATUS_OK;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
         }
-        return true;
+    }
+
+    /**
+     * @return payload of the call, the written fields each prefixed with an int length
+     */
+    static byte[] encodeFields(int code, ParcelableByteArray data) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream fields = new DataOutputStream(payload);
+        data.foreach(bytes -> {
+            try {
+                fields.writeInt(bytes.length);
+                fields.write(bytes);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        if (payload.size() > MAX_FRAME_SIZE)
+            throw new IllegalArgumentException("transaction " + code + " is too large: " + payload.size() + " bytes");
+        return payload.toByteArray();
+    }
+
+    /**
+     * Writes a call as int code, int payload length and the payload, read by RemoteServiceSocketServer.readPayload
+     */
+    static void writeFrame(DataOutputStream out, int code, byte[] payload) throws IOException {
+        out.writeInt(code);
+        out.writeInt(payload.length);
+        out.write(payload);
     }
 
     @Override public void startServer(KeymapProfile profile, KeymapConfig keymapConfig, IRemoteServiceCallback cb, int screenWidth, int screenHeight) {
-        ParcelableByteArray _data = new ParcelableByteArray(5);
-        _data.writeTypedObject(profile);
-        _data.writeTypedObject(keymapConfig);
+        ParcelableByteArray _data = new ParcelableByteArray(6);
+        _data.writeTypedObject(profile, KeymapProfileMacro.PARCELABLE_WITHOUT_FILE);
+        _data.writeTypedObject(keymapConfig, 0);
         _data.writeStrongInterface(null);
         _data.writeInt(screenWidth);
         _data.writeInt(screenHeight);
-        boolean _status = transactRemote(TRANSACTION_startServer, _data);
+
+        // Macro files in the order of the macros, with a flag for each macro which has one
+        ParcelFileDescriptor[] files = new ParcelFileDescriptor[Math.min(profile.macros.size(), MAX_FILES)];
+        byte[] hasFile = new byte[profile.macros.size()];
+        int count = 0;
+        for (int i = 0; i < files.length; i++) {
+            ParcelFileDescriptor fd = profile.macros.get(i).openFile();
+            if (fd != null) {
+                files[count++] = fd;
+                hasFile[i] = 1;
+            }
+        }
+        _data.writeByteArray(hasFile);
+        FileDescriptor[] fds = new FileDescriptor[count];
+        for (int i = 0; i < count; i++) fds[i] = files[i].getFileDescriptor();
+        try {
+            boolean _status = transactRemote(TRANSACTION_startServer, _data, count > 0 ? fds : null);
+        } finally {
+            // The server received duplicates
+            for (int i = 0; i < count; i++) try {
+                files[i].close();
+            } catch (IOException ignored) {
+            }
+        }
     }
 
     @Override public void stopServer() {
         ParcelableByteArray _data = new ParcelableByteArray(5);
         boolean _status = transactRemote(TRANSACTION_stopServer, _data);
     }
-    @Override public void registerOnKeyEventListener(xtr.keymapper.OnKeyEventListener l) {
+    @Override public void registerOnKeyEventListener(xtr.keymapper.OnKeyEventListener l, int filter, int[] keyCodes) {
         ParcelableByteArray _data = new ParcelableByteArray(5);
         _data.writeStrongInterface(null);
+        _data.writeInt(filter);
         boolean _status = transactRemote(TRANSACTION_registerOnKeyEventListener, _data);
 
     }
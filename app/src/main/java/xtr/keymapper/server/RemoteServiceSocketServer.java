@@ -5,163 +5,259 @@ import static xtr.keymapper.server.RemoteServiceSocketClient.*;
 import android.net.LocalServerSocket;
 import android.net.LocalSocket;
 import android.os.Parcel;
+import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.ByteBuffer;
 
-public class RemoteServiceSocketServer {
-//    private final LocalSocket socket;
+/**
+ * Serves IRemoteService over a local socket, when the server is started from the shell with --tcpip.
+ * Each connection is served on its own thread, calls from one client are handled in order.
+ * A call is a frame of int code, int payload length and the payload, which is a sequence of fields each
+ * prefixed with an int length. The server answers each call with an int status once it has returned.
+ * File descriptors of a call are received as ancillary data with its frame.
+ */
+public class RemoteServiceSocketServer implements Runnable {
     private final RemoteService mService;
-    private final InputStream inputStream;
-    private final OutputStream outputStream;
+    private final LocalServerSocket serverSocket;
 
-    private <T> T readTypedObject(android.os.Parcelable.Creator<T> c) {
-        Parcel parcel = Parcel.obtain();
-        try {
-            int length = inputStream.read();
+    /**
+     * Reads the fields of a call, in the order they were written by the client
+     */
+    static class Fields {
+        private final DataInputStream in;
+        private final FileDescriptor[] files;
+        private int nextFile = 0;
+
+        Fields(byte[] payload, FileDescriptor[] files) {
+            in = new DataInputStream(new ByteArrayInputStream(payload));
+            this.files = files != null ? files : new FileDescriptor[0];
+        }
+
+        byte[] read() throws IOException {
+            int length = in.readInt();
+            if (length < 0 || length > in.available()) throw new IOException("invalid field length " + length);
             byte[] bytes = new byte[length];
-            System.out.println(length);
-            inputStream.read(bytes);
-            System.out.println(bytes.toString());
-            parcel.unmarshall(bytes, 0, length);
-            parcel.setDataPosition(0);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            in.readFully(bytes);
+            return bytes;
+        }
+
+        <T> T readTypedObject(android.os.Parcelable.Creator<T> c) throws IOException {
+            byte[] bytes = read();
+            Parcel parcel = Parcel.obtain();
+            try {
+                parcel.unmarshall(bytes, 0, bytes.length);
+                parcel.setDataPosition(0);
+                return c.createFromParcel(parcel);
+            } finally {
+                parcel.recycle();
+            }
+        }
+
+        int readInt() throws IOException {
+            byte[] bytes = read();
+            if (bytes.length != 4) throw new IOException("invalid int field of " + bytes.length + " bytes");
+            return new DataInputStream(new ByteArrayInputStream(bytes)).readInt();
+        }
+
+        /**
+         * Binder objects can not be sent over the socket, the field is empty
+         */
+        void readStrongInterface() throws IOException {
+            read();
+        }
+
+        /**
+         * @return the next file descriptor received with the frame, owned by the caller
+         */
+        ParcelFileDescriptor readFile() throws IOException {
+            if (nextFile >= files.length) throw new IOException("missing file descriptor " + nextFile);
+            FileDescriptor fd = files[nextFile];
+            files[nextFile++] = null;
+            try {
+                return ParcelFileDescriptor.dup(fd);
+            } finally {
+                close(fd);
+            }
+        }
+
+        /**
+         * Closes the file descriptors which were not read
+         */
+        void closeFiles() {
+            for (; nextFile < files.length; nextFile++) close(files[nextFile]);
+        }
+
+        private static void close(FileDescriptor fd) {
+            try {
+                Os.close(fd);
+            } catch (ErrnoException e) {
+                Log.e(RemoteService.TAG, e.getMessage(), e);
+            }
         }
-        T obj = c.createFromParcel(parcel);
-        parcel.recycle();
-        return obj;
     }
 
-    // blocking
-    public RemoteServiceSocketServer(RemoteService mService) {
+    public RemoteServiceSocketServer(RemoteService mService) throws IOException {
         this.mService = mService;
-        try {
-            LocalServerSocket serverSocket = new LocalServerSocket("xtmapper-a3e11694");
-            LocalSocket socket = serverSocket.accept();
-            inputStream = socket.getInputStream();
-            outputStream = socket.getOutputStream();
-            while (true) {
-                int code = inputStream.read();
-                if (code == -1) continue;
+        serverSocket = new LocalServerSocket(SOCKET_NAME);
+        Thread thread = new Thread(this, "socket_server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Accepts connections until the server socket fails
+     */
+    @Override
+    public void run() {
+        while (true) {
+            LocalSocket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                Log.e(RemoteService.TAG, e.getMessage(), e);
+                return;
+            }
+            Thread thread = new Thread(() -> serve(socket), "socket_client");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
 
-                int length = inputStream.read();
-                if (length == -1) continue;
-                byte[] b = new byte[length];
-                inputStream.read(b);
+    private void serve(LocalSocket socket) {
+        try (socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            while (true) {
+                int code;
+                try {
+                    code = in.readInt();
+                } catch (EOFException e) {
+                    // Client closed the connection between calls
+                    break;
+                }
+                byte[] payload = readPayload(in);
 
-                onTransact(code);
+                int status = STATUS_OK;
+                Fields fields = new Fields(payload, socket.getAncillaryFileDescriptors());
+                try {
+                    onTransact(code, fields);
+                } catch (IOException | RemoteException | RuntimeException e) {
+                    Log.e(RemoteService.TAG, "socket transaction " + code + " failed", e);
+                    status = STATUS_EXCEPTION;
+                } finally {
+                    fields.closeFiles();
+                }
+                out.writeInt(status);
+                out.flush();
             }
-        } catch (IOException | RemoteException e) {
-            throw new RuntimeException(e);
+        } catch (IOException e) {
+            // Connection is dropped, a frame which was cut short can not be recovered
+            Log.e(RemoteService.TAG, e.getMessage(), e);
         }
     }
 
-    public void onTransact(int code) throws RemoteException {
+    /**
+     * Reads the payload of a call, after its code
+     * @throws EOFException if the frame was cut short
+     */
+    static byte[] readPayload(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME_SIZE) throw new IOException("invalid frame length " + length);
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return payload;
+    }
+
+    private void onTransact(int code, Fields data) throws IOException, RemoteException {
         switch (code)
         {
             case TRANSACTION_startServer:
             {
                 xtr.keymapper.keymap.KeymapProfile _arg0;
-                _arg0 = readTypedObject(xtr.keymapper.keymap.KeymapProfile.CREATOR);
+                _arg0 = data.readTypedObject(xtr.keymapper.keymap.KeymapProfile.CREATOR);
                 xtr.keymapper.keymap.KeymapConfig _arg1;
-                _arg1 = readTypedObject(xtr.keymapper.keymap.KeymapConfig.CREATOR);
+                _arg1 = data.readTypedObject(xtr.keymapper.keymap.KeymapConfig.CREATOR);
                 xtr.keymapper.IRemoteServiceCallback _arg2;
+                data.readStrongInterface();
                 _arg2 = null;
                 int _arg3;
-                _arg3 = readInt();
+                _arg3 = data.readInt();
                 int _arg4;
-                _arg4 = readInt();
+                _arg4 = data.readInt();
+                // Files of the macros, which are not in the parcel
+                byte[] hasFile = data.read();
+                for (int i = 0; i < hasFile.length && i < _arg0.macros.size(); i++)
+                    if (hasFile[i] != 0) _arg0.macros.get(i).setFile(data.readFile());
                 mService.startServer(_arg0, _arg1, _arg2, _arg3, _arg4);
-                writeNoException();
                 break;
             }
             case TRANSACTION_stopServer:
             {
                 mService.stopServer();
-                writeNoException();
                 break;
             }
             case TRANSACTION_registerOnKeyEventListener:
             {
                 xtr.keymapper.OnKeyEventListener _arg0;
+                data.readStrongInterface();
                 _arg0 = null;
-                mService.registerOnKeyEventListener(_arg0);
-                writeNoException();
+                int _arg1;
+                _arg1 = data.readInt();
+                mService.registerOnKeyEventListener(_arg0, _arg1, null);
                 break;
             }
             case TRANSACTION_unregisterOnKeyEventListener:
             {
                 xtr.keymapper.OnKeyEventListener _arg0;
+                data.readStrongInterface();
                 _arg0 = null;
                 mService.unregisterOnKeyEventListener(_arg0);
-                writeNoException();
                 break;
             }
             case TRANSACTION_registerActivityObserver:
             {
                 xtr.keymapper.ActivityObserver _arg0;
+                data.readStrongInterface();
                 _arg0 = null;
                 mService.registerActivityObserver(_arg0);
-                writeNoException();
                 break;
             }
             case TRANSACTION_unregisterActivityObserver:
             {
                 xtr.keymapper.ActivityObserver _arg0;
+                data.readStrongInterface();
                 _arg0 = null;
                 mService.unregisterActivityObserver(_arg0);
-                writeNoException();
                 break;
             }
             case TRANSACTION_resumeMouse:
             {
                 mService.resumeMouse();
-                writeNoException();
                 break;
             }
             case TRANSACTION_pauseMouse:
             {
                 mService.pauseMouse();
-                writeNoException();
                 break;
             }
             case TRANSACTION_reloadKeymap:
             {
                 mService.reloadKeymap();
-                writeNoException();
                 break;
             }
-        }
-    }
-
-    public int readInt() {
-        int i;
-        try {
-            int length = inputStream.read();
-            byte[] b = new byte[length];
-            inputStream.read(b);
-            i = ByteBuffer.wrap(b).getInt();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        return i;
-    }
-
-    public void writeNoException() {
-
-    }
-
-    public void writeInt(int x) {
-        byte[] bytes = ByteBuffer.allocate(4).putInt(x).array();
-        try {
-            outputStream.write(bytes.length);
-            outputStream.write(bytes);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            default:
+                throw new IOException("unknown transaction " + code);
         }
     }
 }
@@ -0,0 +1,129 @@
+package xtr.keymapper.server;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import xtr.keymapper.keymap.KeymapConfig;
+
+/**
+ * Scheduling priority and cpu affinity of the threads handling input.
+ * Threads are found by name in /proc/self/task, so native threads from mouse_read.c,
+ * keyboard_read.cpp and the touchpad readers are included as well.
+ * By default threads keep the default priority and may run on any cpu.
+ */
+public class ThreadPolicy {
+    private static final List<String> INPUT_THREADS = Arrays.asList(
+            "mouse_read", "keyboard_read", "touchpad", "getevent",
+            "mouse_events", "injector", "scroll");
+
+    // Linux scheduling policies, from sched.h
+    private static final int SCHED_OTHER = 0;
+    private static final int SCHED_FIFO = 1;
+    // Lowest real time priority, enough to preempt any normal thread
+    private static final int REALTIME_PRIORITY = 1;
+
+    /**
+     * Applies the policy from keymap config to all input threads currently running,
+     * called again whenever new input threads are started.
+     * The policy which took effect for each thread is logged.
+     */
+    public static void apply(KeymapConfig keymapConfig) {
+        int cpuMask = parseCpuList(keymapConfig.inputCpuAffinity);
+        StringBuilder report = new StringBuilder();
+
+        File[] tasks = new File("/proc/self/task").listFiles();
+        if (tasks == null) return;
+        for (File task : tasks) {
+            String name = readThreadName(task);
+            if (name == null || !INPUT_THREADS.contains(name)) continue;
+            int tid = Integer.parseInt(task.getName());
+            report.append(name).append(": ").append(apply(tid, keymapConfig.inputThreadPriority, cpuMask)).append("; ");
+        }
+        Log.i(RemoteService.TAG, "thread policy: " + report);
+    }
+
+    /**
+     * For java threads, which are only named after they start running
+     */
+    public static void applyToCurrentThread(KeymapConfig keymapConfig) {
+        String policy = apply(Process.myTid(), keymapConfig.inputThreadPriority, parseCpuList(keymapConfig.inputCpuAffinity));
+        Log.i(RemoteService.TAG, "thread policy: " + Thread.currentThread().getName() + ": " + policy);
+    }
+
+    private static String apply(int tid, int priority, int cpuMask) {
+        String policy = setPriority(tid, priority);
+        if (cpuMask != 0) {
+            int error = setAffinity(tid, cpuMask);
+            if (error == 0) policy += ", cpus 0x" + Integer.toHexString(cpuMask);
+            else policy += ", affinity failed (errno " + error + ")";
+        }
+        return policy;
+    }
+
+    private static String setPriority(int tid, int priority) {
+        String fallback = "";
+        switch (priority) {
+            case KeymapConfig.THREAD_PRIORITY_REALTIME:
+                int error = setScheduler(tid, SCHED_FIFO, REALTIME_PRIORITY);
+                if (error == 0) return "SCHED_FIFO " + REALTIME_PRIORITY;
+                // Not permitted without root, use the next best
+                fallback = "SCHED_FIFO denied (errno " + error + ") -> ";
+            case KeymapConfig.THREAD_PRIORITY_URGENT:
+                setScheduler(tid, SCHED_OTHER, 0);
+                try {
+                    Process.setThreadPriority(tid, Process.THREAD_PRIORITY_URGENT_DISPLAY);
+                    return fallback + "urgent display";
+                } catch (IllegalArgumentException | SecurityException e) {
+                    return fallback + "default (" + e.getMessage() + ")";
+                }
+            default:
+                setScheduler(tid, SCHED_OTHER, 0);
+                try {
+                    Process.setThreadPriority(tid, Process.THREAD_PRIORITY_DEFAULT);
+                } catch (IllegalArgumentException | SecurityException ignored) {
+                }
+                return "default";
+        }
+    }
+
+    private static String readThreadName(File task) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(new File(task, "comm")))) {
+            return reader.readLine();
+        } catch (IOException e) {
+            // Thread exited
+            return null;
+        }
+    }
+
+    /**
+     * @param cpus list of cpus like "4-7" or "0,2,6", empty for all cpus
+     * @return bitmask of cpus, 0 if the list is empty or invalid
+     */
+    public static int parseCpuList(String cpus) {
+        if (cpus == null || cpus.trim().isEmpty()) return 0;
+        int mask = 0;
+        try {
+            for (String range : cpus.split(",")) {
+                String[] bounds = range.trim().split("-");
+                int first = Integer.parseInt(bounds[0].trim());
+                int last = bounds.length > 1 ? Integer.parseInt(bounds[1].trim()) : first;
+                for (int cpu = first; cpu <= last && cpu < 32; cpu++)
+                    if (cpu >= 0) mask |= 1 << cpu;
+            }
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+        return mask;
+    }
+
+    // thread_policy.cpp, return 0 on success or errno
+    private static native int setScheduler(int tid, int policy, int priority);
+    private static native int setAffinity(int tid, int cpuMask);
+}
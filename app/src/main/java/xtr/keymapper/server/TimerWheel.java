@@ -0,0 +1,113 @@
+package xtr.keymapper.server;
+
+import java.util.Arrays;
+
+/**
+ * Hashed timer wheel for delayed touch events, only used from the injector thread.
+ * Timers are kept in preallocated arrays and linked in a list per bucket,
+ * timers in the same tick fire in the order they were added.
+ */
+class TimerWheel {
+    static final long TICK_NANOS = 250_000; // 0.25 ms
+    private static final int WHEEL_SIZE = 512; // 128 ms per rotation, longer delays wait for more rotations
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int CAPACITY = 256;
+
+    interface Dispatcher {
+        void dispatch(int action, int pointerId, float x, float y);
+    }
+
+    private final int[] actions = new int[CAPACITY];
+    private final int[] pointerIds = new int[CAPACITY];
+    private final float[] xs = new float[CAPACITY];
+    private final float[] ys = new float[CAPACITY];
+    private final long[] ticks = new long[CAPACITY];
+    private final int[] next = new int[CAPACITY]; // Next timer in the same bucket, or in the free list
+
+    private final int[] bucketHeads = new int[WHEEL_SIZE];
+    private final int[] bucketTails = new int[WHEEL_SIZE];
+    private int freeHead = 0;
+    private int size = 0;
+    private long currentTick; // Next tick to be processed
+
+    TimerWheel() {
+        Arrays.fill(bucketHeads, -1);
+        Arrays.fill(bucketTails, -1);
+        for (int i = 0; i < CAPACITY; i++) next[i] = i + 1;
+        next[CAPACITY - 1] = -1;
+    }
+
+    /**
+     * @return false if all timers are in use
+     */
+    boolean add(long deadlineNanos, int action, int pointerId, float x, float y) {
+        if (freeHead == -1) return false;
+        int timer = freeHead;
+        freeHead = next[timer];
+
+        long now = System.nanoTime();
+        // Nothing is pending so no tick has been processed since the wheel was last used
+        if (size == 0) currentTick = now / TICK_NANOS;
+        // Round up, timers never fire early
+        long tick = Math.max((deadlineNanos + TICK_NANOS - 1) / TICK_NANOS, currentTick);
+
+        actions[timer] = action;
+        pointerIds[timer] = pointerId;
+        xs[timer] = x;
+        ys[timer] = y;
+        ticks[timer] = tick;
+        next[timer] = -1;
+
+        int bucket = (int) (tick & WHEEL_MASK);
+        if (bucketTails[bucket] == -1) bucketHeads[bucket] = timer;
+        else next[bucketTails[bucket]] = timer;
+        bucketTails[bucket] = timer;
+        size++;
+        return true;
+    }
+
+    /**
+     * Fires all timers which are due
+     */
+    void advance(Dispatcher dispatcher) {
+        long nowTick = System.nanoTime() / TICK_NANOS;
+        while (size > 0 && currentTick <= nowTick) {
+            fireBucket(currentTick, dispatcher);
+            currentTick++;
+        }
+    }
+
+    private void fireBucket(long tick, Dispatcher dispatcher) {
+        int bucket = (int) (tick & WHEEL_MASK);
+        int previous = -1;
+        int timer = bucketHeads[bucket];
+        while (timer != -1) {
+            int following = next[timer];
+            if (ticks[timer] <= tick) {
+                // Unlink and release the timer before dispatching
+                if (previous == -1) bucketHeads[bucket] = following;
+                else next[previous] = following;
+                if (bucketTails[bucket] == timer) bucketTails[bucket] = previous;
+                next[timer] = freeHead;
+                freeHead = timer;
+                size--;
+                dispatcher.dispatch(actions[timer], pointerIds[timer], xs[timer], ys[timer]);
+            } else {
+                // Due in a later rotation
+                previous = timer;
+            }
+            timer = following;
+        }
+    }
+
+    /**
+     * @return nanoseconds until the next non empty bucket, or -1 if there are no timers
+     */
+    long nanosUntilNext() {
+        if (size == 0) return -1;
+        long tick = currentTick;
+        for (int i = 0; i < WHEEL_SIZE; i++, tick++)
+            if (bucketHeads[(int) (tick & WHEEL_MASK)] != -1) break;
+        return Math.max(tick * TICK_NANOS - System.nanoTime(), 0);
+    }
+}
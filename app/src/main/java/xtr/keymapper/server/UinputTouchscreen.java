@@ -0,0 +1,80 @@
+package xtr.keymapper.server;
+
+import static xtr.keymapper.server.InputService.DOWN;
+import static xtr.keymapper.server.InputService.MOVE;
+import static xtr.keymapper.server.InputService.UP;
+
+import android.util.Log;
+
+import com.genymobile.scrcpy.PointersState;
+
+import java.util.Arrays;
+
+/**
+ * Touch injection through a virtual multitouch screen created with uinput in touch_uinput.cpp,
+ * evdev frames are written directly instead of injecting MotionEvents through InputManager.
+ * Pointer ids are assigned to multitouch slots, each new contact gets a new tracking id.
+ */
+public class UinputTouchscreen {
+    private static final int MAX_SLOTS = PointersState.MAX_POINTERS;
+    private static final int MAX_TRACKING_ID = 0xffff;
+
+    private final int[] slotPointerIds = new int[MAX_SLOTS];
+    private final int[] slotTrackingIds = new int[MAX_SLOTS];
+    private int activeSlots = 0;
+    private int nextTrackingId = 0;
+
+    public UinputTouchscreen() {
+        Arrays.fill(slotPointerIds, -1);
+    }
+
+    /**
+     * @return false if the uinput device could not be created
+     */
+    public boolean create(int width, int height) {
+        return init(width, height, MAX_SLOTS);
+    }
+
+    public synchronized void injectTouch(int action, int pointerId, float x, float y) {
+        int slot = indexOf(pointerId);
+        switch (action) {
+            case DOWN:
+                if (slot == -1) {
+                    slot = indexOf(-1);
+                    if (slot == -1) {
+                        Log.e(RemoteService.TAG, "Too many pointers for touch event");
+                        return;
+                    }
+                    slotPointerIds[slot] = pointerId;
+                    slotTrackingIds[slot] = nextTrackingId;
+                    nextTrackingId = (nextTrackingId + 1) & MAX_TRACKING_ID;
+                    activeSlots++;
+                }
+                touch(slot, slotTrackingIds[slot], Math.round(x), Math.round(y), true);
+                break;
+            case MOVE:
+                if (slot != -1) touch(slot, slotTrackingIds[slot], Math.round(x), Math.round(y), true);
+                break;
+            case UP:
+                if (slot == -1) return;
+                slotPointerIds[slot] = -1;
+                activeSlots--;
+                touch(slot, -1, 0, 0, activeSlots > 0);
+                break;
+        }
+    }
+
+    public synchronized boolean noPointersDown() {
+        return activeSlots == 0;
+    }
+
+    private int indexOf(int pointerId) {
+        for (int i = 0; i < MAX_SLOTS; i++)
+            if (slotPointerIds[i] == pointerId) return i;
+        return -1;
+    }
+
+    private native boolean init(int width, int height, int slots);
+    private native void touch(int slot, int trackingId, int x, int y, boolean touching);
+    public native void destroy();
+}
@@ -1,24 +1,25 @@
 package xtr.keymapper.swipekey;
 
+import static xtr.keymapper.InputEventCodes.getKeyCode;
 import static xtr.keymapper.server.InputService.DOWN;
 import static xtr.keymapper.server.InputService.MOVE;
 
-import android.os.Handler;
-
 import xtr.keymapper.server.IInputInterface;
-import xtr.keymapper.touchpointer.KeyEventHandler.KeyEvent;
-import xtr.keymapper.touchpointer.PidProvider;
 
 public class SwipeKeyHandler {
 
     private final SwipeEvent swipeEvent1;
     private final SwipeEvent swipeEvent2;
-    private final String keycode1;
-    private final String keycode2;
-
-    public SwipeKeyHandler(SwipeKey key){
-        this.keycode1 = "KEY_" + key.key1.code;
-        this.keycode2 = "KEY_" + key.key2.code;
+    public final int keycode1;
+    public final int keycode2;
+    private final int pointerId1;
+    private final int pointerId2;
+
+    public SwipeKeyHandler(SwipeKey key, int pointerId1, int pointerId2){
+        this.keycode1 = getKeyCode("KEY_" + key.key1.code);
+        this.keycode2 = getKeyCode("KEY_" + key.key2.code);
+        this.pointerId1 = pointerId1;
+        this.pointerId2 = pointerId2;
         float midpointX = (key.key1.x + key.key2.x) / 2;
         float midpointY = (key.key1.y + key.key2.y) / 2;
         swipeEvent1 = new SwipeEvent(midpointX, midpointY, key.key1.x, key.key1.y);
@@ -37,20 +38,21 @@ public class SwipeKeyHandler {
         }
     }
 
-    public void handleEvent(KeyEvent event, IInputInterface service, PidProvider pidProvider, Handler handler, int swipeDelayMs) {
+    public void handleEvent(int code, int action, IInputInterface service, int swipeDelayMs) {
         SwipeEvent swipeEvent;
-        if (event.code.equals(keycode1))
+        int pid;
+        if (code == keycode1) {
             swipeEvent = swipeEvent1;
-        else if (event.code.equals(keycode2))
+            pid = pointerId1;
+        } else if (code == keycode2) {
             swipeEvent = swipeEvent2;
-        else return;
-        int pid = pidProvider.getPid(event.code);
+            pid = pointerId2;
+        } else return;
 
-        service.injectEvent(swipeEvent.startX, swipeEvent.startY, event.action, pid);
+        service.injectEvent(swipeEvent.startX, swipeEvent.startY, action, pid);
 
-        if (event.action == DOWN) handler.postDelayed(() -> {
-            service.injectEvent(swipeEvent.stopX, swipeEvent.stopY, MOVE, pid);
-        }, swipeDelayMs);
+        if (action == DOWN)
+            service.injectEventDelayed(swipeEvent.stopX, swipeEvent.stopY, MOVE, pid, swipeDelayMs);
     }
 
 }
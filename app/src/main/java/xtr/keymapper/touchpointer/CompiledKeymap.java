@@ -0,0 +1,104 @@
+package xtr.keymapper.touchpointer;
+
+import static xtr.keymapper.InputEventCodes.KEY_CNT;
+import static xtr.keymapper.InputEventCodes.getKeyCode;
+import static xtr.keymapper.touchpointer.PointerId.dpadpid1;
+import static xtr.keymapper.touchpointer.PointerId.macropid1;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import xtr.keymapper.dpad.Dpad;
+import xtr.keymapper.dpad.DpadHandler;
+import xtr.keymapper.keymap.KeymapProfile;
+import xtr.keymapper.keymap.KeymapProfileKey;
+import xtr.keymapper.keymap.KeymapProfileMacro;
+import xtr.keymapper.server.IInputInterface;
+import xtr.keymapper.swipekey.SwipeKey;
+import xtr.keymapper.swipekey.SwipeKeyHandler;
+
+/**
+ * Keymap profile resolved into tables indexed by evdev key code,
+ * so that a key event is dispatched without any string comparison.
+ */
+public final class CompiledKeymap {
+
+    public static final class KeyAction {
+        public final float x, y;
+        public final int pointerId;
+
+        KeyAction(float x, float y, int pointerId) {
+            this.x = x;
+            this.y = y;
+            this.pointerId = pointerId;
+        }
+    }
+
+    final KeyAction[][] keyActions = new KeyAction[KEY_CNT][];
+    final DpadHandler[][] dpadHandlers = new DpadHandler[KEY_CNT][];
+    final SwipeKeyHandler[][] swipeKeyHandlers = new SwipeKeyHandler[KEY_CNT][];
+    final KeymapProfileMacro[][] macros = new KeymapProfileMacro[KEY_CNT][];
+    // Pointer id of each macro
+    final int[][] macroPointerIds = new int[KEY_CNT][];
+
+    public CompiledKeymap(KeymapProfile profile, IInputInterface mInput, int swipeDelayMs) {
+        // Keys without any action share an empty array
+        Arrays.fill(keyActions, new KeyAction[0]);
+        Arrays.fill(dpadHandlers, new DpadHandler[0]);
+        Arrays.fill(swipeKeyHandlers, new SwipeKeyHandler[0]);
+        Arrays.fill(macros, new KeymapProfileMacro[0]);
+        Arrays.fill(macroPointerIds, new int[0]);
+
+        ArrayList<KeymapProfileKey> keyList = profile.keys;
+        for (int i = 0; i < keyList.size(); i++) {
+            KeymapProfileKey key = keyList.get(i);
+            int code = getKeyCode(key.code);
+            if (code == -1) continue;
+            // Correction of x and y deviation from center
+            keyActions[code] = append(keyActions[code], new KeyAction(key.x + key.offset, key.y + key.offset, i));
+        }
+
+        for (int i = 0; i < Dpad.MAX_DPADS + 1; i++) {
+            Dpad dpad = i >= 2 ? profile.dpadUdlr : profile.dpadArray[i]; // Arrow keys
+            if (dpad == null) continue;
+            DpadHandler dpadHandler = new DpadHandler(dpad, dpadpid1.id + i, swipeDelayMs);
+            dpadHandler.setInterface(mInput);
+            for (int code : dpadHandler.getKeyCodes())
+                if (code != -1) dpadHandlers[code] = append(dpadHandlers[code], dpadHandler);
+        }
+
+        // Pointer ids for swipe keys follow the ones used by keys
+        int nextPointerId = keyList.size();
+        int[] pointerIds = new int[KEY_CNT];
+        Arrays.fill(pointerIds, -1);
+        for (SwipeKey key : profile.swipeKeys) {
+            int code1 = getKeyCode("KEY_" + key.key1.code);
+            int code2 = getKeyCode("KEY_" + key.key2.code);
+            if (code1 != -1 && pointerIds[code1] == -1) pointerIds[code1] = nextPointerId++;
+            if (code2 != -1 && pointerIds[code2] == -1) pointerIds[code2] = nextPointerId++;
+
+            SwipeKeyHandler swipeKeyHandler = new SwipeKeyHandler(key,
+                    code1 != -1 ? pointerIds[code1] : -1,
+                    code2 != -1 ? pointerIds[code2] : -1);
+            if (code1 != -1)
+                swipeKeyHandlers[code1] = append(swipeKeyHandlers[code1], swipeKeyHandler);
+            if (code2 != -1 && code2 != code1)
+                swipeKeyHandlers[code2] = append(swipeKeyHandlers[code2], swipeKeyHandler);
+        }
+
+        for (int i = 0; i < profile.macros.size(); i++) {
+            KeymapProfileMacro macro = profile.macros.get(i);
+            int code = getKeyCode(macro.code);
+            if (code == -1) continue;
+            macros[code] = append(macros[code], macro);
+            macroPointerIds[code] = Arrays.copyOf(macroPointerIds[code], macroPointerIds[code].length + 1);
+            macroPointerIds[code][macroPointerIds[code].length - 1] = macropid1.id + i;
+        }
+    }
+
+    private static <T> T[] append(T[] array, T element) {
+        array = Arrays.copyOf(array, array.length + 1);
+        array[array.length - 1] = element;
+        return array;
+    }
+}
@@ -1,84 +1,49 @@
 package xtr.keymapper.touchpointer;
 
+import static xtr.keymapper.InputEventCodes.KEY_CNT;
+import static xtr.keymapper.InputEventCodes.KEY_GRAVE;
+import static xtr.keymapper.InputEventCodes.KEY_LEFTALT;
+import static xtr.keymapper.InputEventCodes.KEY_LEFTCTRL;
+import static xtr.keymapper.InputEventCodes.KEY_RIGHTALT;
+import static xtr.keymapper.InputEventCodes.KEY_RIGHTCTRL;
 import static xtr.keymapper.keymap.KeymapConfig.KEY_ALT;
 import static xtr.keymapper.keymap.KeymapConfig.KEY_CTRL;
 import static xtr.keymapper.server.InputService.DOWN;
 import static xtr.keymapper.server.InputService.UP;
-import static xtr.keymapper.touchpointer.PointerId.dpadpid1;
 
-import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.RemoteException;
 
-import java.util.ArrayList;
-
+import xtr.keymapper.InputEventCodes;
 import xtr.keymapper.Utils;
-import xtr.keymapper.dpad.Dpad;
 import xtr.keymapper.dpad.DpadHandler;
 import xtr.keymapper.keymap.KeymapConfig;
-import xtr.keymapper.keymap.KeymapProfile;
-import xtr.keymapper.keymap.KeymapProfileKey;
 import xtr.keymapper.server.IInputInterface;
-import xtr.keymapper.swipekey.SwipeKey;
 import xtr.keymapper.swipekey.SwipeKeyHandler;
 
 public class KeyEventHandler {
     public boolean ctrlKeyPressed = false;
     public boolean altKeyPressed = false;
-    private DpadHandler[] dpadHandlers;
-    private ArrayList<SwipeKeyHandler> swipeKeyHandlers;
-    private final PidProvider pidProvider = new PidProvider();
+    private volatile boolean stopped = false;
+    // Keymap the held keys were pressed with, only used on the input thread
+    private CompiledKeymap activeKeymap;
+    private final boolean[] keysDown = new boolean[KEY_CNT];
     private final IInputInterface mInput;
-    private HandlerThread mHandlerThread;
-    private Handler eventHandler;
-
-    public KeyEventHandler(IInputInterface mInput) {
-        this.mInput = mInput;
-    }
-
-    public void init(){
-        mHandlerThread = new HandlerThread("events");
-        mHandlerThread.start();
-        eventHandler = new Handler(mHandlerThread.getLooper());
-
-        KeymapConfig keymapConfig = mInput.getKeymapConfig();
-        KeymapProfile profile = mInput.getKeymapProfile();
-
 
-        dpadHandlers = new DpadHandler[Dpad.MAX_DPADS + 1];
-        for (int i = 0; i < dpadHandlers.length; i++) {
-            int pid = dpadpid1.id + i;
-            if ( i >= 2 ) { // Arrow keys
-                if (profile.dpadUdlr != null) {
-                    dpadHandlers[i] = new DpadHandler(profile.dpadUdlr, pid, eventHandler, keymapConfig.swipeDelayMs);
-                    dpadHandlers[i].setInterface(mInput);
-                }
-            } else if (profile.dpadArray[i] != null) {
-                dpadHandlers[i] = new DpadHandler(profile.dpadArray[i], pid, eventHandler, keymapConfig.swipeDelayMs);
-                dpadHandlers[i].setInterface(mInput);
-            }
-        }
-
-
-        // Correction of x and y deviation from center
-        for (KeymapProfileKey key: profile.keys) {
-            key.x += key.offset;
-            key.y += key.offset;
+    // Index of each key code in Utils.alphabet, used for keyboard shortcuts
+    private static final int[] ALPHABET_INDEX = new int[KEY_CNT];
+    static {
+        for (int code = 0; code < KEY_CNT; code++) {
+            String name = InputEventCodes.getKeyName(code);
+            ALPHABET_INDEX[code] = name != null ? Utils.obtainIndex(name) : -1;
         }
+    }
 
-        swipeKeyHandlers = new ArrayList<>();
-        for (SwipeKey key : profile.swipeKeys) {
-            swipeKeyHandlers.add(new SwipeKeyHandler(key));
-        }
+    public KeyEventHandler(IInputInterface mInput) {
+        this.mInput = mInput;
     }
 
     public void stop() {
-        dpadHandlers = null;
-        swipeKeyHandlers = null;
-        if (mHandlerThread != null)
-            mHandlerThread.quit();
-        mHandlerThread = null;
-        eventHandler = null;
+        stopped = true;
     }
 
     public static class KeyEvent {
@@ -88,42 +53,77 @@ public class KeyEventHandler {
 
     public void handleEvent(String line) throws RemoteException {
         // line: EV_KEY KEY_X DOWN
-
         KeyEvent event = getEvent(line);
-        if(event == null) return;
+        if(event != null) handleEvent(InputEventCodes.getKeyCode(event.code), event.action);
+    }
 
-        KeymapConfig keymapConfig = mInput.getKeymapConfig();
+    /**
+     * For key events received from the native keyboard reader
+     * @param code evdev key code
+     * @param action 0 for key up, 1 for key down, 2 for autorepeat
+     */
+    public void handleEvent(int code, int action) throws RemoteException {
+        if (code < 0 || code >= KEY_CNT) return;
+        // Keymap published by InputService, compiled before it was published
+        KeymapSnapshot snapshot = mInput.getKeymapSnapshot();
+        CompiledKeymap keymap = stopped ? null : snapshot.keymap;
+        if (keymap != activeKeymap) {
+            // Keymap was replaced, keys held since before are released with the keymap they were pressed with.
+            // Checked before ignoring autorepeat so that a key still held is released without waiting for its key up
+            releaseKeys(activeKeymap);
+            activeKeymap = keymap;
+        }
+        // Ignore autorepeat like getevent path does
+        if (keymap == null || (action != UP && action != DOWN)) return;
+
+        KeymapConfig keymapConfig = snapshot.config;
 
-        detectCtrlAltKeys(event);
-        int i = Utils.obtainIndex(event.code);
+        detectCtrlAltKeys(code, action);
+        int i = ALPHABET_INDEX[code];
         if (i > 0) { // A-Z and 0-9 keys
-            if (event.action == DOWN) if (handleKeyboardShortcuts(i)) return;
-            handleMouseAim(i, event.action);
+            if (action == DOWN) if (handleKeyboardShortcuts(i)) return;
+            handleMouseAim(i, action);
         } else { // CTRL, ALT, Arrow keys
-            if (event.code.equals("KEY_GRAVE") && event.action == DOWN)
+            if (code == KEY_GRAVE && action == DOWN)
                 if (keymapConfig.keyGraveMouseAim) {
                     mInput.getMouseEventHandler().triggerMouseAim();
                     return;
                 }
         }
 
-        for (DpadHandler dpadHandler: dpadHandlers) {
-            if (dpadHandler != null)
-                dpadHandler.handleEvent(event.code, event.action);
-        }
+        // Key up of a key which was released on reload, or pressed for a shortcut
+        if (action == UP && !keysDown[code]) return;
+        keysDown[code] = action == DOWN;
+        dispatch(keymap, code, action, keymapConfig.swipeDelayMs);
+    }
 
-        ArrayList<KeymapProfileKey> keyList = mInput.getKeymapProfile().keys;
-        for (KeymapProfileKey key : keyList)
-            if (event.code.equals(key.code))
-                mInput.injectEvent(key.x, key.y, event.action, keyList.indexOf(key));
+    private void dispatch(CompiledKeymap keymap, int code, int action, int swipeDelayMs) {
+        for (DpadHandler dpadHandler : keymap.dpadHandlers[code])
+            dpadHandler.handleEvent(code, action);
 
-        for (SwipeKeyHandler swipeKeyHandler : swipeKeyHandlers)
-            swipeKeyHandler.handleEvent(event, mInput, pidProvider, eventHandler, keymapConfig.swipeDelayMs);
+        for (CompiledKeymap.KeyAction key : keymap.keyActions[code])
+            mInput.injectEvent(key.x, key.y, action, key.pointerId);
+
+        for (SwipeKeyHandler swipeKeyHandler : keymap.swipeKeyHandlers[code])
+            swipeKeyHandler.handleEvent(code, action, mInput, swipeDelayMs);
+
+        // Pressing the key again stops the macro, it is played on the injector thread
+        if (action == DOWN) for (int i = 0; i < keymap.macros[code].length; i++)
+            mInput.toggleMacro(keymap.macros[code][i], keymap.macroPointerIds[code][i]);
+    }
+
+    private void releaseKeys(CompiledKeymap keymap) {
+        int swipeDelayMs = mInput.getKeymapConfig().swipeDelayMs;
+        for (int code = 0; code < KEY_CNT; code++)
+            if (keysDown[code]) {
+                keysDown[code] = false;
+                if (keymap != null) dispatch(keymap, code, UP, swipeDelayMs);
+            }
     }
 
-    private void detectCtrlAltKeys(KeyEvent event) {
-        if (event.code.contains("CTRL")) ctrlKeyPressed = event.action == DOWN;
-        if (event.code.contains("ALT")) altKeyPressed = event.action == DOWN;
+    private void detectCtrlAltKeys(int code, int action) {
+        if (code == KEY_LEFTCTRL || code == KEY_RIGHTCTRL) ctrlKeyPressed = action == DOWN;
+        if (code == KEY_LEFTALT || code == KEY_RIGHTALT) altKeyPressed = action == DOWN;
     }
 
     private KeyEvent getEvent(String line){
@@ -174,11 +174,13 @@ public class KeyEventHandler {
 
     public void handleKeyboardShortcutEvent(String line) throws RemoteException {
         KeyEvent event = getEvent(line);
-        if (event != null) {
-            detectCtrlAltKeys(event);
-            int i = Utils.obtainIndex(event.code);
-            if (event.action == DOWN) handleKeyboardShortcuts(i);
-        }
+        if (event != null) handleKeyboardShortcutEvent(InputEventCodes.getKeyCode(event.code), event.action);
+    }
+
+    public void handleKeyboardShortcutEvent(int code, int action) throws RemoteException {
+        if (code < 0 || code >= KEY_CNT || (action != UP && action != DOWN)) return;
+        detectCtrlAltKeys(code, action);
+        if (action == DOWN) handleKeyboardShortcuts(ALPHABET_INDEX[code]);
     }
 
     private void handleMouseAim(int keycode, int action) {
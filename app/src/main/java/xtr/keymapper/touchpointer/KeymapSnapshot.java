@@ -0,0 +1,39 @@
+package xtr.keymapper.touchpointer;
+
+import xtr.keymapper.keymap.KeymapConfig;
+import xtr.keymapper.keymap.KeymapProfile;
+import xtr.keymapper.keymap.KeymapProfileKey;
+import xtr.keymapper.mouse.MouseAimHandler;
+import xtr.keymapper.server.IInputInterface;
+
+/**
+ * Everything the key and mouse handlers read from a keymap, built before it is used.
+ * Published by InputService with a single volatile write, so an input thread sees
+ * either the previous keymap or the new one and never a mix of both.
+ */
+public final class KeymapSnapshot {
+    public final KeymapProfile profile;
+    public final KeymapConfig config;
+    final CompiledKeymap keymap;
+    // Null if the profile has no mouse aim, only used by MouseEventHandler once it has taken over this keymap
+    final MouseAimHandler mouseAimHandler;
+    final KeymapProfileKey rightClick;
+    final int sensitivity;
+    final int scrollSpeed;
+
+    public KeymapSnapshot(KeymapProfile profile, KeymapConfig config, IInputInterface mInput, int width, int height) {
+        this.profile = profile;
+        this.config = config;
+        keymap = new CompiledKeymap(profile, mInput, config.swipeDelayMs);
+        if (profile.mouseAimConfig != null) {
+            mouseAimHandler = new MouseAimHandler(profile.mouseAimConfig);
+            mouseAimHandler.setInterface(mInput);
+            mouseAimHandler.setDimensions(width, height);
+        } else {
+            mouseAimHandler = null;
+        }
+        rightClick = profile.rightClick;
+        sensitivity = config.mouseSensitivity.intValue();
+        scrollSpeed = config.scrollSpeed.intValue();
+    }
+}
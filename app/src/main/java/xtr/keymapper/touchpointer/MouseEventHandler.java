@@ -17,121 +17,181 @@ import xtr.keymapper.keymap.KeymapConfig;
 import xtr.keymapper.mouse.MouseAimHandler;
 import xtr.keymapper.mouse.MousePinchZoom;
 import xtr.keymapper.mouse.MouseWheelZoom;
-import xtr.keymapper.keymap.KeymapProfile;
-import xtr.keymapper.keymap.KeymapProfileKey;
 import xtr.keymapper.server.IInputInterface;
 import xtr.keymapper.server.RemoteService;
 
 public class MouseEventHandler {
-    int sensitivity = 1;
-    int scroll_speed_multiplier = 1;
     private MousePinchZoom pinchZoom;
     private MouseWheelZoom scrollZoomHandler;
     private final int pointerId = PointerId.pid1.id;
     private final int pointerIdRightClick = PointerId.pid3.id;
-    private MouseAimHandler mouseAimHandler;
-    private KeymapProfileKey rightClick;
     int x1 = 100, y1 = 100;
-    int width; int height;
+    private final int width, height;
     private final IInputInterface mInput;
     boolean pointer_down;
-    public boolean mouseAimActive = false;
+    private int buttonState = 0;
+    // Buttons reported in the frame button mask by mouse_read.c
+    private static final int[] FRAME_BUTTONS = {BTN_MOUSE, BTN_RIGHT, BTN_SIDE, BTN_EXTRA};
+
+    // Mouse aim is toggled from the mouse thread and by key shortcuts on the keyboard thread.
+    // Cursor callbacks may be binder calls, they are made after the lock is released
+    private final Object aimLock = new Object();
+    // Keymap the mouse aim handler is taken from and the handler, guarded by aimLock
+    private KeymapSnapshot aimKeymap;
+    private MouseAimHandler mouseAimHandler;
+    // Written with aimLock held
+    private volatile boolean mouseAimActive = false;
+    private volatile boolean stopped = false;
 
-    public void triggerMouseAim() {
-        if (mouseAimHandler != null) {
-            mouseAimActive = !mouseAimActive;
-            if (mouseAimActive) {
+    public MouseEventHandler(IInputInterface mInput, int width, int height) {
+        this.mInput = mInput;
+        this.width = width;
+        this.height = height;
+    }
+
+    public boolean isMouseAimActive() {
+        return mouseAimActive;
+    }
+
+    /**
+     * Takes over the mouse aim handler of a keymap published since the last event, with aimLock held.
+     * The aim pointer of the previous keymap is released and put down again with the new one.
+     * @return true if mouse aim was ended because the new keymap has none, the cursor must be shown
+     */
+    private boolean updateAimKeymap() {
+        KeymapSnapshot keymap = mInput.getKeymapSnapshot();
+        if (keymap == aimKeymap) return false;
+        aimKeymap = keymap;
+        MouseAimHandler previousAimHandler = mouseAimHandler;
+        mouseAimHandler = stopped ? null : keymap.mouseAimHandler;
+        if (mouseAimActive && previousAimHandler != null) {
+            previousAimHandler.stop();
+            if (mouseAimHandler != null) {
                 mouseAimHandler.resetPointer();
-                // Notifying user that shooting mode was activated
-                try {
-                    mInput.getCallback().alertMouseAimActivated();
-                } catch (RemoteException e) {
-                    Log.e(RemoteService.TAG, e.getMessage(), e);
-                }
-                mInput.hideCursor();
             } else {
-                mouseAimHandler.stop();
-                mInput.showCursor();
+                mouseAimActive = false;
+                return true;
             }
         }
+        return false;
     }
 
-    public MouseEventHandler(IInputInterface mInput) {
-        this.mInput = mInput;
+    public void triggerMouseAim() {
+        boolean showCursor, hideCursor = false;
+        synchronized (aimLock) {
+            showCursor = updateAimKeymap();
+            if (mouseAimHandler != null) {
+                mouseAimActive = !mouseAimActive;
+                if (mouseAimActive) mouseAimHandler.resetPointer();
+                else mouseAimHandler.stop();
+                showCursor = !mouseAimActive;
+                hideCursor = mouseAimActive;
+            }
+        }
+        if (hideCursor) {
+            // Notifying user that shooting mode was activated
+            try {
+                mInput.getCallback().alertMouseAimActivated();
+            } catch (RemoteException e) {
+                Log.e(RemoteService.TAG, e.getMessage(), e);
+            }
+            mInput.hideCursor();
+        } else if (showCursor) {
+            mInput.showCursor();
+        }
     }
 
-    public void init(){
-        init(width, height);
+    private void movePointer() {
+        mInput.setCursorPosition(x1, y1);
     }
 
-    public void init(int width, int height) {
-        this.width = width;
-        this.height = height;
-
-        KeymapProfile profile = mInput.getKeymapProfile();
-        if (profile.mouseAimConfig != null)
-            mouseAimHandler = new MouseAimHandler(profile.mouseAimConfig);
-        this.rightClick = profile.rightClick;
+    private void handleRightClick(KeymapSnapshot keymap, int value) {
+        if (value == 1 && keymap.config.rightClickMouseAim) triggerMouseAim();
+        else if (keymap.rightClick != null)
+            mInput.injectEvent(keymap.rightClick.x, keymap.rightClick.y, value, pointerIdRightClick);
+    }
 
-        if (mouseAimHandler != null) {
-            mouseAimHandler.setInterface(mInput);
-            mouseAimHandler.setDimensions(width, height);
+    /**
+     * Handles all events of one hardware frame from mouse_read.c
+     * @param dx accumulated REL_X
+     * @param dy accumulated REL_Y
+     * @param wheel accumulated REL_WHEEL
+     * @param buttons mask of pressed buttons, bit index is code - BTN_MOUSE
+     */
+    public void handleFrame(int dx, int dy, int wheel, int buttons) {
+        // Buttons first, in the order the kernel reports them within a frame
+        int changed = buttons ^ buttonState;
+        buttonState = buttons;
+        if (changed != 0) for (int code : FRAME_BUTTONS) {
+            int mask = 1 << (code - BTN_MOUSE);
+            if ((changed & mask) != 0) handleEvent(code, (buttons & mask) != 0 ? 1 : 0);
         }
 
-        KeymapConfig keymapConfig = mInput.getKeymapConfig();
-        if (keymapConfig.ctrlMouseWheelZoom)
-            scrollZoomHandler = new MouseWheelZoom(mInput);
-
-        sensitivity = keymapConfig.mouseSensitivity.intValue();
-        scroll_speed_multiplier = keymapConfig.scrollSpeed.intValue();
-    }
-
-    private void movePointerX() {
-        mInput.moveCursorX(x1);
-    }
+        if (dx != 0 || dy != 0) {
+            boolean aimed = false, showCursor;
+            synchronized (aimLock) {
+                showCursor = updateAimKeymap();
+                if (mouseAimHandler != null && mouseAimActive) {
+                    mouseAimHandler.handleMotion(dx, dy);
+                    aimed = true;
+                }
+            }
+            if (showCursor) mInput.showCursor();
+            if (!aimed) handleMouseMotion(dx, dy);
+        }
 
-    private void movePointerY() {
-        mInput.moveCursorY(y1);
+        if (wheel != 0) handleEvent(REL_WHEEL, wheel);
     }
 
-    private void handleRightClick(int value) {
-        if (value == 1 && mInput.getKeymapConfig().rightClickMouseAim) triggerMouseAim();
-        else if (rightClick != null)
-            mInput.injectEvent(rightClick.x, rightClick.y, value, pointerIdRightClick);
+    public void handleEvent(int code, int value) {
+        boolean handled = false, showCursor;
+        synchronized (aimLock) {
+            showCursor = updateAimKeymap();
+            if (mouseAimHandler != null && mouseAimActive)
+                handled = mouseAimHandler.handleEvent(code, value);
+        }
+        if (showCursor) mInput.showCursor();
+        // Buttons not handled by mouse aim may end it, outside of the lock
+        if (!handled) handleMouseEvent(code, value);
     }
 
-    public void handleEvent(int code, int value) {
-        if (mouseAimHandler != null && mouseAimActive) {
-            mouseAimHandler.handleEvent(code, value, this::handleMouseEvent);
-        } else handleMouseEvent(code, value);
+    private void handleMouseMotion(int dx, int dy) {
+        KeymapSnapshot keymap = mInput.getKeymapSnapshot();
+        if (mInput.getKeyEventHandler().ctrlKeyPressed && pointer_down)
+            if (keymap.config.ctrlDragMouseGesture) {
+                if (pinchZoom != null) {
+                    if (dx != 0) pointer_down = pinchZoom.handleEvent(REL_X, dx);
+                    if (dy != 0) pointer_down = pinchZoom.handleEvent(REL_Y, dy);
+                }
+                return;
+            }
+        dx *= keymap.sensitivity;
+        dy *= keymap.sensitivity;
+        x1 += dx;
+        if (x1 > width || x1 < 0) x1 -= dx;
+        y1 += dy;
+        if (y1 > height || y1 < 0) y1 -= dy;
+        // One injection for both axes
+        if (pointer_down) mInput.injectEvent(x1, y1, MOVE, pointerId);
+        else mInput.injectHoverEvent(x1, y1, pointerId);
+        movePointer();
     }
 
     private void handleMouseEvent(int code, int value) {
-        KeymapConfig keymapConfig = mInput.getKeymapConfig();
+        KeymapSnapshot keymap = mInput.getKeymapSnapshot();
+        KeymapConfig keymapConfig = keymap.config;
         if (mInput.getKeyEventHandler().ctrlKeyPressed && pointer_down)
             if (keymapConfig.ctrlDragMouseGesture) {
                 if (pinchZoom != null) pointer_down = pinchZoom.handleEvent(code, value);
                 return;
             }
         switch (code) {
-            case REL_X: {
-                if (value == 0) break;
-                value *= sensitivity;
-                x1 += value;
-                if (x1 > width || x1 < 0) x1 -= value;
-                if (pointer_down) mInput.injectEvent(x1, y1, MOVE, pointerId);
-                else mInput.injectHoverEvent(x1, y1, pointerId);
+            case REL_X:
+                if (value != 0) handleMouseMotion(value, 0);
                 break;
-            }
-            case REL_Y: {
-                if (value == 0) break;
-                value *= sensitivity;
-                y1 += value;
-                if (y1 > height || y1 < 0) y1 -= value;
-                if (pointer_down) mInput.injectEvent(x1, y1, MOVE, pointerId);
-                else mInput.injectHoverEvent(x1, y1, pointerId);
+            case REL_Y:
+                if (value != 0) handleMouseMotion(0, value);
                 break;
-            }
             case BTN_MOUSE:
                 pointer_down = value == 1;
                 if (mInput.getKeyEventHandler().ctrlKeyPressed && keymapConfig.ctrlDragMouseGesture) {
@@ -141,7 +201,7 @@ public class MouseEventHandler {
                 break;
 
             case BTN_RIGHT:
-                handleRightClick(value);
+                handleRightClick(keymap, value);
                 break;
 
             case BTN_EXTRA:
@@ -150,33 +210,35 @@ public class MouseEventHandler {
                 if (value == 1) triggerMouseAim();
 
             case REL_WHEEL:
-                if (mInput.getKeyEventHandler().ctrlKeyPressed && keymapConfig.ctrlMouseWheelZoom)
+                if (mInput.getKeyEventHandler().ctrlKeyPressed && keymapConfig.ctrlMouseWheelZoom && !stopped) {
+                    // Created once, the thread is reused by every keymap
+                    if (scrollZoomHandler == null) scrollZoomHandler = new MouseWheelZoom(mInput);
                     scrollZoomHandler.onScrollEvent(value, x1, y1);
-                else
-                    mInput.injectScroll(x1, y1, value * scroll_speed_multiplier);
+                } else
+                    mInput.injectScroll(x1, y1, value * keymap.scrollSpeed);
                 break;
         }
-        if (code == REL_X) movePointerX();
-        if (code == REL_Y) movePointerY();
     }
 
     public void evAbsY(int y) {
         this.y1 = y;
         if (pointer_down) mInput.injectEvent(x1, y1, MOVE, pointerId);
         else mInput.injectHoverEvent(x1, y1, pointerId);
-        movePointerY();
+        movePointer();
     }
 
     public void evAbsX(int x) {
         this.x1 = x;
         if (pointer_down) mInput.injectEvent(x1, y1, MOVE, pointerId);
         else mInput.injectHoverEvent(x1, y1, pointerId);
-        movePointerX();
+        movePointer();
     }
 
     public void stop() {
-        scrollZoomHandler = null;
+        synchronized (aimLock) {
+            stopped = true;
+            mouseAimHandler = null;
+        }
         pinchZoom = null;
-        mouseAimHandler = null;
     }
 }
@@ -6,7 +6,8 @@ public enum PointerId {
     pid1(36), // pointer id 36, 37 and 38 reserved for mouse events
     pid2(37),
     pid3(38),
-    dpadpid1(39);
+    dpadpid1(39), // pointer id 39, 40 and 41 reserved for dpads
+    macropid1(42); // pointer id 42 and above for macros
 
     PointerId(int i) {
         id = i;
@@ -0,0 +1,106 @@
+package com.genymobile.scrcpy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.view.MotionEvent;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PointersStateTest {
+    private PointersState state;
+    private final MotionEvent.PointerProperties[] props = new MotionEvent.PointerProperties[PointersState.MAX_POINTERS];
+    private final MotionEvent.PointerCoords[] coords = new MotionEvent.PointerCoords[PointersState.MAX_POINTERS];
+
+    @Before
+    public void setUp() {
+        state = new PointersState();
+        for (int i = 0; i < PointersState.MAX_POINTERS; i++) {
+            props[i] = new MotionEvent.PointerProperties();
+            coords[i] = new MotionEvent.PointerCoords();
+        }
+    }
+
+    private int down(long id, float x, float y) {
+        int localId = state.getLocalId(id);
+        state.setPoint(localId, x, y, 1f);
+        state.setUp(localId, false);
+        return localId;
+    }
+
+    @Test
+    public void sameIdKeepsItsLocalId() {
+        assertEquals(0, down(100, 1, 1));
+        assertEquals(1, down(200, 2, 2));
+        assertEquals(0, state.getLocalId(100));
+        assertEquals(1, state.getLocalId(200));
+    }
+
+    @Test
+    public void fullStateReturnsNoLocalId() {
+        for (int i = 0; i < PointersState.MAX_POINTERS; i++) assertEquals(i, down(i, i, i));
+        assertEquals(-1, state.getLocalId(PointersState.MAX_POINTERS));
+        // Existing pointers are still found
+        assertEquals(PointersState.MAX_POINTERS - 1, state.getLocalId(PointersState.MAX_POINTERS - 1));
+    }
+
+    @Test
+    public void updateFillsPointersInLocalIdOrder() {
+        down(100, 10, 11);
+        down(200, 20, 21);
+        down(300, 30, 31);
+
+        assertEquals(3, state.update(props, coords));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, props[i].id);
+            assertEquals(10 * (i + 1), coords[i].x, 0);
+            assertEquals(10 * (i + 1) + 1, coords[i].y, 0);
+            assertEquals(1f, coords[i].pressure, 0);
+        }
+    }
+
+    @Test
+    public void upPointerIsSentOnceThenRemoved() {
+        down(100, 10, 10);
+        int middle = down(200, 20, 20);
+        int last = down(300, 30, 30);
+        assertEquals(2, state.getPointerIndex(last));
+
+        state.setUp(middle, true);
+        // The UP event still contains the pointer
+        assertEquals(3, state.update(props, coords));
+        assertEquals(1, props[1].id);
+
+        // Indexes of the following pointers move down once it is removed
+        assertEquals(1, state.getPointerIndex(last));
+        assertEquals(2, state.update(props, coords));
+        assertEquals(0, props[0].id);
+        assertEquals(2, props[1].id);
+    }
+
+    @Test
+    public void removedLocalIdIsReused() {
+        down(100, 10, 10);
+        int removed = down(200, 20, 20);
+        down(300, 30, 30);
+        state.setUp(removed, true);
+        state.update(props, coords);
+
+        assertEquals(removed, down(400, 40, 40));
+        assertEquals(3, state.update(props, coords));
+        assertEquals(40, coords[removed].x, 0);
+    }
+
+    @Test
+    public void hasPointersDownIgnoresUpPointers() {
+        assertFalse(state.hasPointersDown());
+        int localId = down(100, 10, 10);
+        assertTrue(state.hasPointersDown());
+        state.setUp(localId, true);
+        assertFalse(state.hasPointersDown());
+        state.update(props, coords);
+        assertFalse(state.hasPointersDown());
+    }
+}
@@ -0,0 +1,136 @@
+package xtr.keymapper.keymap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import xtr.keymapper.BuildConfig;
+
+@RunWith(RobolectricTestRunner.class)
+public class KeymapProfileFileTest {
+    // In the order readLines returns them: records first, then APPLICATION and ENABLED
+    private static final List<String> LINES = Arrays.asList(
+            "KEY_A 100.5 200.25 0.0",
+            "KEY_SPACE 10.0 20.0 1.5",
+            "MOUSE_RIGHT 640.0 360.0",
+            "SWIPE_KEY KEY_W 1.0 2.0 KEY_S 3.0 4.0",
+            "MACRO KEY_M macro0",
+            "APPLICATION com.example.game",
+            "ENABLED");
+
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("profiles").toFile();
+        file = new File(dir, "test.profile");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void writeThenReadLinesGivesTheSameLines() throws IOException {
+        assertEquals("com.example.game", KeymapProfileFile.write(file, LINES));
+        assertEquals(LINES, KeymapProfileFile.readLines(file));
+        assertEquals("com.example.game", KeymapProfileFile.readPackageName(file));
+    }
+
+    @Test
+    public void readParsesAllRecords() throws IOException {
+        KeymapProfileFile.write(file, LINES);
+        KeymapProfile profile = KeymapProfileFile.read(file);
+
+        assertEquals("com.example.game", profile.packageName);
+        assertFalse(profile.disabled);
+        assertEquals(2, profile.keys.size());
+        KeymapProfileKey key = profile.keys.get(0);
+        assertEquals("KEY_A", key.code);
+        assertEquals(100.5f, key.x, 0);
+        assertEquals(200.25f, key.y, 0);
+        assertEquals(0f, key.offset, 0);
+        assertEquals(1.5f, profile.keys.get(1).offset, 0);
+        assertEquals(640f, profile.rightClick.x, 0);
+        assertEquals(360f, profile.rightClick.y, 0);
+        assertEquals(1, profile.swipeKeys.size());
+        assertEquals("KEY_S", profile.swipeKeys.get(0).key2.code);
+        assertEquals(1, profile.macros.size());
+        assertEquals("macro0", profile.macros.get(0).id);
+    }
+
+    @Test
+    public void profileWithoutApplicationBelongsToTheApp() throws IOException {
+        List<String> lines = Collections.singletonList("KEY_A 1.0 2.0 0.0");
+        assertEquals(BuildConfig.APPLICATION_ID, KeymapProfileFile.write(file, lines));
+        assertEquals(BuildConfig.APPLICATION_ID, KeymapProfileFile.readPackageName(file));
+        assertTrue(KeymapProfileFile.read(file).disabled);
+        assertEquals(lines, KeymapProfileFile.readLines(file));
+    }
+
+    @Test
+    public void keyLineWithExtraFieldsIsKeptAsText() throws IOException {
+        List<String> lines = Arrays.asList("KEY_B 1.0 2.0 0.0 extra", "APPLICATION com.example.game");
+        KeymapProfileFile.write(file, lines);
+        assertEquals(lines, KeymapProfileFile.readLines(file));
+        assertEquals("KEY_B", KeymapProfileFile.read(file).keys.get(0).code);
+    }
+
+    @Test
+    public void payloadOnlyDependsOnTheLines() throws IOException {
+        byte[] payload = KeymapProfileFile.encodePayload(LINES);
+        assertArrayEquals(payload, KeymapProfileFile.encodePayload(new ArrayList<>(LINES)));
+
+        List<String> reversed = new ArrayList<>(LINES);
+        Collections.reverse(reversed);
+        assertFalse(Arrays.equals(payload, KeymapProfileFile.encodePayload(reversed)));
+    }
+
+    @Test
+    public void corruptedPayloadIsRejected() throws IOException {
+        KeymapProfileFile.write(file, LINES);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length() - 1);
+            int last = raf.read();
+            raf.seek(raf.length() - 1);
+            raf.write(last ^ 0xff);
+        }
+        assertThrows(IOException.class, () -> KeymapProfileFile.read(file));
+        assertThrows(IOException.class, () -> KeymapProfileFile.readLines(file));
+    }
+
+    @Test
+    public void truncatedFileIsRejected() throws IOException {
+        KeymapProfileFile.write(file, LINES);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+        assertThrows(IOException.class, () -> KeymapProfileFile.read(file));
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(4);
+        }
+        assertThrows(IOException.class, () -> KeymapProfileFile.readPackageName(file));
+    }
+}
@@ -0,0 +1,139 @@
+package xtr.keymapper.keymap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+@RunWith(RobolectricTestRunner.class)
+public class KeymapProfileIndexTest {
+    private File dir;
+    private File indexFile;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("profiles").toFile();
+        indexFile = new File(dir, "packages.index");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        dir.delete();
+    }
+
+    private File profileFile(String profileName) {
+        return new File(dir, profileName + ".profile");
+    }
+
+    // Fails the test if the index is built again instead of loaded
+    private File noProfileRead(String profileName) {
+        throw new AssertionError("index built again, read " + profileName);
+    }
+
+    private void writeProfile(String profileName, String packageName) throws IOException {
+        KeymapProfileFile.write(profileFile(profileName), Arrays.asList("KEY_A 1.0 2.0 0.0", "APPLICATION " + packageName));
+    }
+
+    private static ArrayList<String> names(String... names) {
+        return new ArrayList<>(Arrays.asList(names));
+    }
+
+    private static Set<String> set(String... names) {
+        return new HashSet<>(Arrays.asList(names));
+    }
+
+    private KeymapProfileIndex buildIndex() throws IOException {
+        writeProfile("p1", "com.example.a");
+        writeProfile("p2", "com.example.a");
+        writeProfile("p3", "com.example.b");
+        return new KeymapProfileIndex(indexFile, names("p1", "p2", "p3"), this::profileFile);
+    }
+
+    private void corruptIndex() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+            raf.seek(raf.length() - 1);
+            int last = raf.read();
+            raf.seek(raf.length() - 1);
+            raf.write(last ^ 0xff);
+        }
+    }
+
+    @Test
+    public void buildsFromProfileFiles() throws IOException {
+        KeymapProfileIndex index = buildIndex();
+
+        assertEquals(names("p1", "p2"), index.getProfiles("com.example.a"));
+        assertEquals(names("p3"), index.getProfiles("com.example.b"));
+        assertTrue(index.getProfiles("com.example.c").isEmpty());
+        assertEquals("com.example.b", index.getPackageName("p3"));
+        assertTrue(indexFile.exists());
+    }
+
+    @Test
+    public void loadsSavedIndexWithoutReadingProfiles() throws IOException {
+        buildIndex();
+        KeymapProfileIndex index = new KeymapProfileIndex(indexFile, names("p1", "p2", "p3"), this::noProfileRead);
+
+        assertEquals(set("p1", "p2"), new HashSet<>(index.getProfiles("com.example.a")));
+        assertEquals(names("p3"), index.getProfiles("com.example.b"));
+    }
+
+    @Test
+    public void rebuildsCorruptIndex() throws IOException {
+        buildIndex();
+        // Only seen if the profiles are read again
+        writeProfile("p1", "com.example.c");
+        corruptIndex();
+
+        KeymapProfileIndex index = new KeymapProfileIndex(indexFile, names("p1", "p2", "p3"), this::profileFile);
+        assertEquals("com.example.c", index.getPackageName("p1"));
+        assertEquals(names("p2"), index.getProfiles("com.example.a"));
+
+        // The rebuilt index was saved
+        index = new KeymapProfileIndex(indexFile, names("p1", "p2", "p3"), this::noProfileRead);
+        assertEquals("com.example.c", index.getPackageName("p1"));
+    }
+
+    @Test
+    public void rebuildsWhenProfilesDoNotMatch() throws IOException {
+        buildIndex();
+        writeProfile("p4", "com.example.b");
+        profileFile("p2").delete();
+
+        KeymapProfileIndex index = new KeymapProfileIndex(indexFile, names("p1", "p3", "p4"), this::profileFile);
+        assertEquals(names("p1"), index.getProfiles("com.example.a"));
+        assertEquals(set("p3", "p4"), new HashSet<>(index.getProfiles("com.example.b")));
+        assertNull(index.getPackageName("p2"));
+    }
+
+    @Test
+    public void changesAreSaved() throws IOException {
+        KeymapProfileIndex index = buildIndex();
+        index.put("p4", "com.example.b");
+        index.put("p3", "com.example.a");
+        index.rename("p1", "p5");
+        index.delete("p2");
+
+        index = new KeymapProfileIndex(indexFile, names("p3", "p4", "p5"), this::noProfileRead);
+        assertEquals(set("p3", "p5"), new HashSet<>(index.getProfiles("com.example.a")));
+        assertEquals(names("p4"), index.getProfiles("com.example.b"));
+        assertNull(index.getPackageName("p1"));
+        assertNull(index.getPackageName("p2"));
+    }
+}
@@ -0,0 +1,94 @@
+package xtr.keymapper.keymap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class KeymapProfilesTest {
+    private static final List<String> PROFILE = Arrays.asList(
+            "KEY_A 100.5 200.25 0.0",
+            "KEY_SPACE 10.0 20.0 1.5",
+            "MOUSE_RIGHT 640.0 360.0",
+            "SWIPE_KEY KEY_W 1.0 2.0 KEY_S 3.0 4.0",
+            "MACRO KEY_M macro0",
+            "APPLICATION com.example.game",
+            "ENABLED");
+
+    private static List<String> with(String... lines) {
+        List<String> profile = new ArrayList<>(PROFILE);
+        profile.addAll(Arrays.asList(lines));
+        return profile;
+    }
+
+    @Test
+    public void validProfileHasNoProblem() {
+        assertNull(KeymapProfiles.validate(PROFILE));
+    }
+
+    @Test
+    public void profileWithoutApplicationIsInvalid() {
+        List<String> profile = new ArrayList<>(PROFILE);
+        profile.remove("APPLICATION com.example.game");
+        assertEquals("no APPLICATION line", KeymapProfiles.validate(profile));
+    }
+
+    @Test
+    public void applicationLineMustHaveOnePackage() {
+        List<String> profile = new ArrayList<>(PROFILE);
+        profile.set(profile.indexOf("APPLICATION com.example.game"), "APPLICATION com.example.game extra");
+        assertEquals("invalid line: APPLICATION com.example.game extra", KeymapProfiles.validate(profile));
+    }
+
+    @Test
+    public void keyWithInvalidPositionIsInvalid() {
+        assertEquals("invalid line: KEY_B x 2.0 0.0", KeymapProfiles.validate(with("KEY_B x 2.0 0.0")));
+    }
+
+    @Test
+    public void lineWithMissingValuesIsInvalid() {
+        assertEquals("invalid line: MOUSE_RIGHT 640.0", KeymapProfiles.validate(with("MOUSE_RIGHT 640.0")));
+        assertEquals("invalid line: SWIPE_KEY KEY_W 1.0 2.0 KEY_S x 4.0",
+                KeymapProfiles.validate(with("SWIPE_KEY KEY_W 1.0 2.0 KEY_S x 4.0")));
+    }
+
+    @Test
+    public void hashIgnoresOrderAndDuplicateLines() {
+        String hash = KeymapProfiles.contentHash(PROFILE);
+
+        List<String> reversed = new ArrayList<>(PROFILE);
+        Collections.reverse(reversed);
+        assertEquals(hash, KeymapProfiles.contentHash(reversed));
+        assertEquals(hash, KeymapProfiles.contentHash(with("KEY_A 100.5 200.25 0.0")));
+    }
+
+    @Test
+    public void hashIgnoresHowPositionsAreWritten() {
+        List<String> profile = new ArrayList<>(PROFILE);
+        profile.set(1, "KEY_SPACE 10 20.00 1.50");
+        assertEquals(KeymapProfiles.contentHash(PROFILE), KeymapProfiles.contentHash(profile));
+    }
+
+    @Test
+    public void hashChangesWithContent() {
+        String hash = KeymapProfiles.contentHash(PROFILE);
+
+        List<String> moved = new ArrayList<>(PROFILE);
+        moved.set(0, "KEY_A 100.5 200.5 0.0");
+        assertNotEquals(hash, KeymapProfiles.contentHash(moved));
+
+        List<String> disabled = new ArrayList<>(PROFILE);
+        disabled.remove("ENABLED");
+        assertNotEquals(hash, KeymapProfiles.contentHash(disabled));
+
+        List<String> otherApp = new ArrayList<>(PROFILE);
+        otherApp.set(otherApp.indexOf("APPLICATION com.example.game"), "APPLICATION com.example.other");
+        assertNotEquals(hash, KeymapProfiles.contentHash(otherApp));
+    }
+}
@@ -0,0 +1,172 @@
+package xtr.keymapper.macro;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+@RunWith(RobolectricTestRunner.class)
+public class MacroFileTest {
+    // Offsets in the header: int magic, short version, int sample count, int payload length, int crc32
+    private static final int COUNT_OFFSET = 6;
+    private static final int HEADER_SIZE = 18;
+
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("macros").toFile();
+        file = new File(dir, "macro0");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        dir.delete();
+    }
+
+    private MacroSamples read() throws IOException {
+        return MacroFile.read(new FileInputStream(file), file.getName());
+    }
+
+    private void writeInt(long offset, int value) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(offset);
+            raf.writeInt(value);
+        }
+    }
+
+    @Test
+    public void roundTripKeepsSamples() throws IOException {
+        MacroSamples samples = new MacroSamples();
+        // Coordinates in 1/16 pixel are kept exactly, with deltas in both directions
+        samples.add(100.0625f, 200.5f, 10_000, 0);
+        samples.add(99.5f, 250f, 10_016, 1);
+        samples.add(-40.25f, 3000f, 10_016, 1);
+        samples.add(1920f, 0f, 10_500, 1);
+        // Ten minutes later, the delta takes several varint bytes
+        samples.add(1920f, 0f, 610_500, 2);
+        MacroFile.write(file, samples);
+
+        MacroSamples read = read();
+        assertEquals(samples.size(), read.size());
+        for (int i = 0; i < samples.size(); i++) {
+            assertEquals(samples.getX(i), read.getX(i), 0);
+            assertEquals(samples.getY(i), read.getY(i), 0);
+            assertEquals(samples.getTime(i), read.getTime(i));
+            assertEquals(samples.getAction(i), read.getAction(i));
+        }
+    }
+
+    @Test
+    public void largeDeltasRoundTrip() throws IOException {
+        MacroSamples samples = new MacroSamples();
+        samples.add(1_000_000f, -1_000_000f, 0, 0);
+        samples.add(-1_000_000f, 1_000_000f, 1, 2);
+        MacroFile.write(file, samples);
+
+        MacroSamples read = read();
+        assertEquals(-1_000_000f, read.getX(1), 0);
+        assertEquals(1_000_000f, read.getY(1), 0);
+    }
+
+    @Test
+    public void coordinatesAreRoundedToSubpixels() throws IOException {
+        MacroSamples samples = new MacroSamples();
+        samples.add(1.03f, -2.97f, 0, 0);
+        MacroFile.write(file, samples);
+        MacroSamples read = read();
+        assertEquals(1f, read.getX(0), 0);
+        assertEquals(-3f, read.getY(0), 0);
+    }
+
+    @Test
+    public void timeGoingBackwardsIsClamped() throws IOException {
+        MacroSamples samples = new MacroSamples();
+        samples.add(0, 0, 100, 0);
+        samples.add(0, 0, 90, 1);
+        samples.add(0, 0, 120, 2);
+        MacroFile.write(file, samples);
+
+        MacroSamples read = read();
+        assertEquals(0, read.getTime(1));
+        assertEquals(20, read.getTime(2));
+    }
+
+    @Test
+    public void emptyMacroRoundTrips() throws IOException {
+        MacroFile.write(file, new MacroSamples());
+        assertEquals(HEADER_SIZE, file.length());
+        assertEquals(0, read().size());
+    }
+
+    @Test
+    public void corruptCountIsRejected() throws IOException {
+        MacroSamples samples = new MacroSamples();
+        for (int i = 0; i < 10; i++) samples.add(i, i, i, 1);
+        MacroFile.write(file, samples);
+
+        // Would allocate arrays for every sample before the payload runs out
+        writeInt(COUNT_OFFSET, Integer.MAX_VALUE);
+        IOException e = assertThrows(IOException.class, this::read);
+        assertTrue(e.getMessage(), e.getMessage().startsWith("invalid sample count"));
+
+        writeInt(COUNT_OFFSET, -1);
+        assertThrows(IOException.class, this::read);
+    }
+
+    @Test
+    public void countLargerThanTheSamplesIsRejected() throws IOException {
+        MacroSamples samples = new MacroSamples();
+        // Each sample takes more than 3 bytes, so the count passes the size check and the payload runs out
+        for (int i = 0; i < 10; i++) samples.add(i * 100, i * 100, i * 1000L, 1);
+        MacroFile.write(file, samples);
+        writeInt(COUNT_OFFSET, 11);
+        IOException e = assertThrows(IOException.class, this::read);
+        assertTrue(e.getMessage(), e.getMessage().startsWith("invalid macro"));
+    }
+
+    @Test
+    public void corruptPayloadIsRejected() throws IOException {
+        MacroSamples samples = new MacroSamples();
+        samples.add(10, 20, 0, 0);
+        samples.add(30, 40, 5, 2);
+        MacroFile.write(file, samples);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(HEADER_SIZE);
+            int first = raf.read();
+            raf.seek(HEADER_SIZE);
+            raf.write(first ^ 0x01);
+        }
+        IOException e = assertThrows(IOException.class, this::read);
+        assertTrue(e.getMessage(), e.getMessage().startsWith("checksum mismatch"));
+    }
+
+    @Test
+    public void truncatedOrForeignFileIsRejected() throws IOException {
+        MacroSamples samples = new MacroSamples();
+        samples.add(10, 20, 0, 0);
+        MacroFile.write(file, samples);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+        assertThrows(IOException.class, this::read);
+
+        Files.write(file.toPath(), new byte[HEADER_SIZE]);
+        IOException e = assertThrows(IOException.class, this::read);
+        assertTrue(e.getMessage(), e.getMessage().startsWith("not a macro"));
+    }
+}
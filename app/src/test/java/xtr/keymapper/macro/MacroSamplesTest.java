@@ -0,0 +1,41 @@
+package xtr.keymapper.macro;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class MacroSamplesTest {
+
+    @Test
+    public void growingKeepsAllSamples() {
+        MacroSamples samples = new MacroSamples(2);
+        int n = 1000;
+        for (int i = 0; i < n; i++) samples.add(i * 0.5f, -i, 5000 + i * 4L, i % 3);
+
+        assertEquals(n, samples.size());
+        for (int i = 0; i < n; i++) {
+            assertEquals(i * 0.5f, samples.getX(i), 0);
+            assertEquals(-i, samples.getY(i), 0);
+            assertEquals(i * 4L, samples.getTime(i));
+            assertEquals(i % 3, samples.getAction(i));
+        }
+    }
+
+    @Test
+    public void timesAreFromTheFirstSample() {
+        MacroSamples samples = new MacroSamples();
+        samples.add(0, 0, 123_456, 0);
+        samples.add(0, 0, 123_470, 2);
+        assertEquals(0, samples.getTime(0));
+        assertEquals(14, samples.getTime(1));
+    }
+
+    @Test
+    public void zeroCapacityStillGrows() {
+        MacroSamples samples = new MacroSamples(0);
+        samples.add(1, 2, 3, 1);
+        samples.add(4, 5, 6, 2);
+        assertEquals(2, samples.size());
+        assertEquals(4, samples.getX(1), 0);
+    }
+}
@@ -0,0 +1,131 @@
+package xtr.keymapper.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static xtr.keymapper.server.RemoteServiceSocketClient.MAX_FRAME_SIZE;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import xtr.keymapper.server.RemoteServiceSocketClient.ParcelableByteArray;
+import xtr.keymapper.server.RemoteServiceSocketServer.Fields;
+
+public class RemoteServiceSocketFramingTest {
+
+    private static byte[] frame(int code, ParcelableByteArray data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        RemoteServiceSocketClient.writeFrame(out, code, RemoteServiceSocketClient.encodeFields(code, data));
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static DataInputStream input(byte[] bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    @Test
+    public void fieldsRoundTrip() throws IOException {
+        byte[] blob = new byte[300];
+        Arrays.fill(blob, (byte) 7);
+        ParcelableByteArray data = new ParcelableByteArray(5);
+        data.writeStrongInterface(null);
+        data.writeInt(1920);
+        data.writeInt(-1);
+        data.writeByteArray(blob);
+
+        DataInputStream in = input(frame(42, data));
+        assertEquals(42, in.readInt());
+        Fields fields = new Fields(RemoteServiceSocketServer.readPayload(in), null);
+        fields.readStrongInterface();
+        assertEquals(1920, fields.readInt());
+        assertEquals(-1, fields.readInt());
+        // Longer than the single byte length of the old framing
+        assertArrayEquals(blob, fields.read());
+        // Only the fields which were written are sent
+        assertThrows(EOFException.class, fields::read);
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void emptyCallHasEmptyPayload() throws IOException {
+        DataInputStream in = input(frame(7, new ParcelableByteArray(5)));
+        assertEquals(7, in.readInt());
+        assertEquals(0, RemoteServiceSocketServer.readPayload(in).length);
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void consecutiveFramesAreSeparated() throws IOException {
+        ParcelableByteArray first = new ParcelableByteArray(1);
+        first.writeInt(1);
+        ParcelableByteArray second = new ParcelableByteArray(1);
+        second.writeInt(2);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(frame(10, first));
+        bytes.write(frame(11, second));
+
+        DataInputStream in = input(bytes.toByteArray());
+        assertEquals(10, in.readInt());
+        assertEquals(1, new Fields(RemoteServiceSocketServer.readPayload(in), null).readInt());
+        assertEquals(11, in.readInt());
+        assertEquals(2, new Fields(RemoteServiceSocketServer.readPayload(in), null).readInt());
+    }
+
+    @Test
+    public void truncatedFrameIsRejected() throws IOException {
+        ParcelableByteArray data = new ParcelableByteArray(1);
+        data.writeByteArray(new byte[16]);
+        byte[] bytes = frame(1, data);
+
+        DataInputStream in = input(Arrays.copyOf(bytes, bytes.length - 1));
+        in.readInt();
+        assertThrows(EOFException.class, () -> RemoteServiceSocketServer.readPayload(in));
+    }
+
+    @Test
+    public void invalidFrameLengthIsRejected() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAX_FRAME_SIZE + 1);
+        out.writeInt(-1);
+        out.flush();
+
+        DataInputStream in = input(bytes.toByteArray());
+        // Refused before the payload is allocated
+        assertThrows(IOException.class, () -> RemoteServiceSocketServer.readPayload(in));
+        assertThrows(IOException.class, () -> RemoteServiceSocketServer.readPayload(in));
+    }
+
+    @Test
+    public void oversizedCallIsRefused() {
+        ParcelableByteArray data = new ParcelableByteArray(1);
+        data.writeByteArray(new byte[MAX_FRAME_SIZE]);
+        assertThrows(IllegalArgumentException.class, () -> RemoteServiceSocketClient.encodeFields(1, data));
+    }
+
+    @Test
+    public void invalidFieldIsRejected() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        // Field of two bytes where an int is expected
+        out.writeInt(2);
+        out.writeShort(5);
+        // Field longer than the rest of the payload
+        out.writeInt(100);
+        out.writeInt(0);
+        out.flush();
+
+        Fields fields = new Fields(bytes.toByteArray(), null);
+        assertThrows(IOException.class, fields::readInt);
+        assertThrows(IOException.class, fields::read);
+    }
+}
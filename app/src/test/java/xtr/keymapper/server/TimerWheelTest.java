@@ -0,0 +1,121 @@
+package xtr.keymapper.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+public class TimerWheelTest {
+    private static final long MILLIS = 1_000_000;
+    // One rotation of the wheel, a timer this much later falls in the same bucket
+    private static final long ROTATION_NANOS = 512 * TimerWheel.TICK_NANOS;
+
+    private final TimerWheel wheel = new TimerWheel();
+    // Actions in the order they were dispatched
+    private final List<Integer> fired = new ArrayList<>();
+    private final TimerWheel.Dispatcher dispatcher = (action, pointerId, x, y) -> fired.add(action);
+
+    private static void sleepUntil(long deadlineNanos) {
+        long remaining;
+        while ((remaining = deadlineNanos - System.nanoTime()) > 0) LockSupport.parkNanos(remaining);
+    }
+
+    private int[] firedActions() {
+        return fired.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    @Test
+    public void firesInDeadlineOrder() {
+        long base = System.nanoTime();
+        wheel.add(base + 3 * MILLIS, 3, 0, 0, 0);
+        wheel.add(base + MILLIS, 1, 0, 0, 0);
+        wheel.add(base + 2 * MILLIS, 2, 0, 0, 0);
+
+        sleepUntil(base + 4 * MILLIS);
+        wheel.advance(dispatcher);
+        assertArrayEquals(new int[]{1, 2, 3}, firedActions());
+        assertEquals(-1, wheel.nanosUntilNext());
+    }
+
+    @Test
+    public void sameDeadlineFiresInInsertionOrder() {
+        long deadline = System.nanoTime() + MILLIS;
+        for (int action = 0; action < 5; action++) wheel.add(deadline, action, action, action, action);
+
+        sleepUntil(deadline + TimerWheel.TICK_NANOS);
+        wheel.advance(dispatcher);
+        assertArrayEquals(new int[]{0, 1, 2, 3, 4}, firedActions());
+    }
+
+    @Test
+    public void neverFiresEarly() {
+        long deadline = System.nanoTime() + 50 * MILLIS;
+        wheel.add(deadline, 1, 0, 0, 0);
+
+        wheel.advance(dispatcher);
+        assertTrue(fired.isEmpty());
+        assertTrue(wheel.nanosUntilNext() > 0);
+
+        sleepUntil(deadline + TimerWheel.TICK_NANOS);
+        wheel.advance(dispatcher);
+        assertArrayEquals(new int[]{1}, firedActions());
+    }
+
+    @Test
+    public void laterRotationWaitsInTheSameBucket() {
+        long first = System.nanoTime() + 20 * MILLIS;
+        long second = first + ROTATION_NANOS;
+        wheel.add(second, 2, 0, 0, 0);
+        wheel.add(first, 1, 0, 0, 0);
+
+        sleepUntil(first + TimerWheel.TICK_NANOS);
+        wheel.advance(dispatcher);
+        assertArrayEquals(new int[]{1}, firedActions());
+
+        sleepUntil(second + TimerWheel.TICK_NANOS);
+        wheel.advance(dispatcher);
+        assertArrayEquals(new int[]{1, 2}, firedActions());
+    }
+
+    @Test
+    public void pastDeadlineFiresOnNextAdvance() {
+        wheel.add(System.nanoTime() - 10 * MILLIS, 1, 0, 0, 0);
+        wheel.advance(dispatcher);
+        assertArrayEquals(new int[]{1}, firedActions());
+    }
+
+    @Test
+    public void fullWheelRejectsTimersUntilOneFires() {
+        long base = System.nanoTime();
+        int capacity = 0;
+        while (wheel.add(base + MILLIS, capacity, 0, 0, 0)) capacity++;
+        assertEquals(256, capacity);
+        assertFalse(wheel.add(base + MILLIS, capacity, 0, 0, 0));
+
+        sleepUntil(base + 2 * MILLIS);
+        wheel.advance(dispatcher);
+        assertEquals(capacity, fired.size());
+        assertTrue(wheel.add(base, capacity, 0, 0, 0));
+    }
+
+    @Test
+    public void dispatchesTheTimerValues() {
+        float[] values = new float[2];
+        int[] ids = new int[2];
+        wheel.add(System.nanoTime() - MILLIS, 7, 3, 12.5f, 40f);
+        wheel.advance((action, pointerId, x, y) -> {
+            ids[0] = action;
+            ids[1] = pointerId;
+            values[0] = x;
+            values[1] = y;
+        });
+        assertArrayEquals(new int[]{7, 3}, ids);
+        assertArrayEquals(new float[]{12.5f, 40f}, values, 0);
+    }
+}